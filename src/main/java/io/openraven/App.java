@@ -9,15 +9,20 @@ package io.openraven;
 
 import static org.springframework.util.StringUtils.isEmpty;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.openraven.consumer.messaging.BoundedRetryBatchErrorHandler;
 import io.openraven.consumer.properties.AssetsConsumerProperties;
 import io.openraven.consumer.properties.ElasticSearchServiceProperties;
 import io.openraven.producer.properties.AnalyticsProperties;
 import io.openraven.producer.properties.DiscoveryProperties;
+import io.openraven.producer.properties.ExecutionProperties;
 import io.openraven.producer.properties.RoleArnConfig;
 import io.openraven.producer.properties.SchedulingProperties;
 import io.sentry.Sentry;
-import org.apache.kafka.common.serialization.Deserializer;
-import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.boot.Banner;
 import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -36,6 +41,7 @@ import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.servlet.HandlerExceptionResolver;
 
@@ -51,35 +57,28 @@ public class App {
   @Configuration
   @EnableConfigurationProperties({DiscoveryProperties.class, SchedulingProperties.class,
       AssetsConsumerProperties.class, RoleArnConfig.class, ElasticSearchServiceProperties.class,
-      AnalyticsProperties.class})
+      AnalyticsProperties.class, ExecutionProperties.class})
 
   @EnableKafka
   @EnableScheduling
   public static class Config {
 
+    /**
+     * Envelopes are encoded to bytes by their {@link io.openraven.data.interfaces.EnvelopeCodec},
+     * so the values are handed to Kafka as they are; the serializers are fixed here rather than
+     * configured, since nothing else matches the types. Both profiles need it, the consumer to
+     * forward dead letters.
+     */
     @Bean
-    @Profile("producer")
-    @SuppressWarnings("unchecked")
-    public ProducerFactory<Long, String> producerFactory(KafkaProperties properties)
-        throws Exception {
-      final KafkaProperties.Producer kppProps = properties.getProducer();
-      final Class<Serializer<Long>> keySerClass = (Class<Serializer<Long>>) kppProps
-          .getKeySerializer();
-      final Class<Serializer<String>> valueSerClass = (Class<Serializer<String>>) kppProps
-          .getValueSerializer();
-      final Serializer<Long> keySer = keySerClass.getDeclaredConstructor().newInstance();
-      final Serializer<String> valueSer = valueSerClass.getDeclaredConstructor().newInstance();
-      final DefaultKafkaProducerFactory<Long, String> result = new DefaultKafkaProducerFactory<>(
-          properties.buildProducerProperties());
-      result.setKeySerializer(keySer);
-      result.setValueSerializer(valueSer);
-      return result;
+    public ProducerFactory<String, byte[]> producerFactory(KafkaProperties properties) {
+      return new DefaultKafkaProducerFactory<>(properties.buildProducerProperties(),
+          new StringSerializer(), new ByteArraySerializer());
     }
 
     @Bean
-    public KafkaTemplate<Long, String> deadLetterOperations(ProducerFactory<Long, String> producer,
-        KafkaProperties kafkaProperties) {
-      final KafkaTemplate<Long, String> result = new KafkaTemplate<>(producer);
+    public KafkaTemplate<String, byte[]> deadLetterOperations(
+        ProducerFactory<String, byte[]> producer, KafkaProperties kafkaProperties) {
+      final KafkaTemplate<String, byte[]> result = new KafkaTemplate<>(producer);
       final String defaultTopic = kafkaProperties.getTemplate().getDefaultTopic();
       if (!isEmpty(defaultTopic)) {
         result.setDefaultTopic(defaultTopic);
@@ -90,34 +89,39 @@ public class App {
     /**
      * Be careful, this method/Bean name is magick, see:
      * <tt>org/springframework/boot/autoconfigure/kafka/KafkaAnnotationDrivenConfiguration.java:85</tt>
+     * <p>
+     * Listeners get each poll as one batch and acknowledge it themselves once it has been indexed;
+     * a batch whose listener throws is sought back to and delivered again, after a pause, until
+     * {@code kafka.consumer.max-delivery-attempts} is used up and it is dead lettered, see {@link
+     * BoundedRetryBatchErrorHandler}. There are {@code kafka.consumer.concurrency} containers, each
+     * polling its own partitions.
      */
     @Bean
     @Profile("consumer")
-    public ConcurrentKafkaListenerContainerFactory<Long, String> kafkaListenerContainerFactory(
-        ConsumerFactory<Long, String> consumerFactory) {
-      final ConcurrentKafkaListenerContainerFactory<Long, String> result = new ConcurrentKafkaListenerContainerFactory<>();
+    public ConcurrentKafkaListenerContainerFactory<String, byte[]> kafkaListenerContainerFactory(
+        ConsumerFactory<String, byte[]> consumerFactory,
+        AssetsConsumerProperties consumerProperties,
+        KafkaTemplate<String, byte[]> deadLetterOperations, MeterRegistry meterRegistry) {
+      final ConcurrentKafkaListenerContainerFactory<String, byte[]> result = new ConcurrentKafkaListenerContainerFactory<>();
       result.setConsumerFactory(consumerFactory);
+      result.setConcurrency(Math.max(1, consumerProperties.getConsumer().getConcurrency()));
+      result.setBatchListener(true);
+      result.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+      final AssetsConsumerProperties.Consumer consumer = consumerProperties.getConsumer();
+      result.setBatchErrorHandler(new BoundedRetryBatchErrorHandler(deadLetterOperations,
+          consumerProperties.getDeadLetter().getTopic(), consumer.getMaxDeliveryAttempts(),
+          consumer.getRetryIntervalMillis(), meterRegistry));
       return result;
     }
 
+    /**
+     * Values are decoded by the codec named in each record's header, straight from the bytes.
+     */
     @Bean
     @Profile("consumer")
-    @SuppressWarnings("unchecked")
-    public ConsumerFactory<Long, String> consumerFactory(KafkaProperties properties)
-        throws Exception {
-      final KafkaProperties.Consumer kpcProps = properties.getConsumer();
-      final Class<Deserializer<Long>> keyDeserClass = (Class<Deserializer<Long>>) kpcProps
-          .getKeyDeserializer();
-      final Class<Deserializer<String>> valueDeserClass = (Class<Deserializer<String>>) kpcProps
-          .getValueDeserializer();
-      final Deserializer<Long> keyDeser = keyDeserClass.getDeclaredConstructor().newInstance();
-      final Deserializer<String> valueDeser = valueDeserClass.getDeclaredConstructor()
-          .newInstance();
-      final DefaultKafkaConsumerFactory<Long, String> result = new DefaultKafkaConsumerFactory<>(
-          properties.buildConsumerProperties());
-      result.setKeyDeserializer(keyDeser);
-      result.setValueDeserializer(valueDeser);
-      return result;
+    public ConsumerFactory<String, byte[]> consumerFactory(KafkaProperties properties) {
+      return new DefaultKafkaConsumerFactory<>(properties.buildConsumerProperties(),
+          new StringDeserializer(), new ByteArrayDeserializer());
     }
 
     @Bean
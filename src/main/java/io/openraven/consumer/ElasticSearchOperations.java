@@ -10,16 +10,19 @@ package io.openraven.consumer;
 import static org.slf4j.LoggerFactory.getLogger;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.openraven.consumer.messaging.PassthroughEnvelope;
 import io.openraven.consumer.services.ElasticSearchService;
-import io.openraven.consumer.utils.EncodedNamedUUIDGenerator;
 import io.openraven.data.interfaces.AWSResource;
+import io.openraven.data.shared.EncodedNamedUUIDGenerator;
 import java.io.IOException;
 import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
 import org.slf4j.Logger;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 
 @Component
+@Profile("consumer")
 public class ElasticSearchOperations {
 
   private final ElasticSearchService elasticSearchService;
@@ -33,20 +36,50 @@ public class ElasticSearchOperations {
     this.json = json;
   }
 
-  public boolean save(AWSResource resource) {
+  /**
+   * Queues the resource to be indexed with the next bulk request.
+   *
+   * @return completes once the resource has been indexed, or exceptionally if it couldn't be
+   */
+  public CompletableFuture<Void> save(AWSResource resource) {
     String indexName = resource.resourceType.replace(":", "").toLowerCase();
     String arn = resource.arn.toLowerCase();
 
     try {
-      resource.documentId = EncodedNamedUUIDGenerator.getEncodedNamedUUID(arn);
+      resource.documentId = EncodedNamedUUIDGenerator.getDocumentId(arn);
       resource.updatedIso = Instant.now().toString();
       return elasticSearchService
-          .writeDocument(indexName, resource.documentId,
-              json.convertValue(resource, ObjectNode.class))
-          != null;
+          .bulkWriteDocument(indexName, resource.documentId, json.writeValueAsBytes(resource));
     } catch (IOException e) {
       log.error("Failure attempting to write {} with message {}", arn, e.getMessage());
-      return false;
+      return CompletableFuture.failedFuture(e);
     }
   }
+
+  /**
+   * Queues the resource of an envelope which was never decoded to be indexed with the next bulk
+   * request, as the JSON it was published as.
+   *
+   * @return completes once the resource has been indexed, or exceptionally if it couldn't be
+   */
+  public CompletableFuture<Void> save(PassthroughEnvelope envelope) {
+    String indexName = envelope.getResourceType().replace(":", "").toLowerCase();
+    String arn = envelope.getArn().toLowerCase();
+
+    try {
+      final String documentId = EncodedNamedUUIDGenerator.getDocumentId(arn);
+      return elasticSearchService.bulkWriteDocument(indexName, documentId,
+          envelope.toDocument(documentId, Instant.now().toString()));
+    } catch (IOException e) {
+      log.error("Failure attempting to write {} with message {}", arn, e.getMessage());
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  /**
+   * Sends the resources saved so far right away, rather than once the bulk request fills up.
+   */
+  public void flush() {
+    elasticSearchService.flush();
+  }
 }
@@ -0,0 +1,167 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.consumer.messaging;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.sentry.Sentry;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.ContainerAwareBatchErrorHandler;
+import org.springframework.kafka.listener.MessageListenerContainer;
+
+/**
+ * Redelivers a batch whose listener threw, after a pause, up to {@code maxAttempts} deliveries in
+ * all; every failed delivery is logged and counted in {@code consumer.batch.retries}. Once the
+ * attempts are used up, every record of the batch goes to the DLQ as it was received and the
+ * batch is committed, so one bad batch can't hold its partitions back forever. If the DLQ can't
+ * take them either, the batch keeps being redelivered, since its records would otherwise be lost.
+ */
+public class BoundedRetryBatchErrorHandler implements ContainerAwareBatchErrorHandler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(BoundedRetryBatchErrorHandler.class);
+
+  private final KafkaTemplate<String, byte[]> deadLetterOperations;
+
+  private final String deadLetterTopic;
+
+  private final int maxAttempts;
+
+  private final long intervalMillis;
+
+  private final Counter retries;
+
+  private final Counter deadLettered;
+
+  // the batch last failed on each container's thread, and how often it has been delivered
+  private final ThreadLocal<FailedBatch> lastFailed = new ThreadLocal<>();
+
+  /**
+   * @param deadLetterTopic where the records of a batch which used up its attempts are parked;
+   *                        never the topic the batch was read from
+   */
+  public BoundedRetryBatchErrorHandler(KafkaTemplate<String, byte[]> deadLetterOperations,
+      String deadLetterTopic, int maxAttempts, long intervalMillis, MeterRegistry meterRegistry) {
+    this.deadLetterOperations = deadLetterOperations;
+    this.deadLetterTopic = deadLetterTopic;
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.intervalMillis = Math.max(0, intervalMillis);
+    this.retries = meterRegistry.counter("consumer.batch.retries");
+    this.deadLettered = meterRegistry.counter("consumer.batch.dead.lettered");
+  }
+
+  @Override
+  public void handle(Exception thrownException, ConsumerRecords<?, ?> data, Consumer<?, ?> consumer,
+      MessageListenerContainer container) {
+    final Map<TopicPartition, Long> firstOffsets = firstOffsets(data);
+    FailedBatch failed = lastFailed.get();
+    if (failed == null || !failed.isSameBatch(firstOffsets)) {
+      failed = new FailedBatch(firstOffsets);
+      lastFailed.set(failed);
+    }
+    final int attempt = ++failed.attempts;
+    Sentry.capture(thrownException);
+
+    if (attempt >= maxAttempts && deadLetter(data)) {
+      lastFailed.remove();
+      consumer.commitSync(nextOffsets(data));
+      deadLettered.increment();
+      LOG.error("Dead lettered a batch of {} records after {} failed deliveries", data.count(),
+          attempt, thrownException);
+      return;
+    }
+
+    retries.increment();
+    LOG.warn("Delivery {} of a batch of {} records failed, redelivering in {} ms", attempt,
+        data.count(), intervalMillis, thrownException);
+    firstOffsets.forEach(consumer::seek);
+    try {
+      Thread.sleep(intervalMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    // so the container doesn't commit the batch
+    throw new KafkaException("Seek to current after exception", thrownException);
+  }
+
+  /**
+   * Sends every record of the batch to the DLQ, header included, and waits for all of them.
+   */
+  @SuppressWarnings("unchecked")
+  private boolean deadLetter(ConsumerRecords<?, ?> data) {
+    try {
+      for (ConsumerRecord<?, ?> record : data) {
+        final ConsumerRecord<String, byte[]> received = (ConsumerRecord<String, byte[]>) record;
+        deadLetterOperations.send(new ProducerRecord<>(deadLetterTopic, null, received.key(),
+            received.value(), received.headers()))
+            .get(10, TimeUnit.SECONDS);
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException | TimeoutException e) {
+      LOG.error("Unable to deliver a failed batch to DLQ, it will be redelivered", e);
+      Sentry.capture(e);
+      return false;
+    }
+  }
+
+  private static Map<TopicPartition, Long> firstOffsets(ConsumerRecords<?, ?> data) {
+    final Map<TopicPartition, Long> result = new HashMap<>();
+    for (TopicPartition partition : data.partitions()) {
+      result.put(partition, data.records(partition).get(0).offset());
+    }
+    return result;
+  }
+
+  private static Map<TopicPartition, OffsetAndMetadata> nextOffsets(ConsumerRecords<?, ?> data) {
+    final Map<TopicPartition, OffsetAndMetadata> result = new HashMap<>();
+    for (TopicPartition partition : data.partitions()) {
+      final List<? extends ConsumerRecord<?, ?>> records = data.records(partition);
+      result.put(partition, new OffsetAndMetadata(records.get(records.size() - 1).offset() + 1));
+    }
+    return result;
+  }
+
+  private static class FailedBatch {
+
+    private final Map<TopicPartition, Long> firstOffsets;
+
+    private int attempts;
+
+    FailedBatch(Map<TopicPartition, Long> firstOffsets) {
+      this.firstOffsets = firstOffsets;
+    }
+
+    /**
+     * Whether a batch is the one delivered again. A redelivery may be polled with more or fewer
+     * records, or partitions, so any partition starting at the same offset is enough.
+     */
+    boolean isSameBatch(Map<TopicPartition, Long> offsets) {
+      return firstOffsets.entrySet().stream()
+          .anyMatch(entry -> entry.getValue().equals(offsets.get(entry.getKey())));
+    }
+
+  }
+
+}
@@ -7,22 +7,34 @@
  */
 package io.openraven.consumer.messaging;
 
-import com.fasterxml.jackson.annotation.JsonTypeInfo;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
 import io.openraven.consumer.ElasticSearchOperations;
+import io.openraven.consumer.properties.AssetsConsumerProperties;
+import io.openraven.consumer.services.BulkRejectedException;
 import io.openraven.data.interfaces.Envelope;
+import io.openraven.data.interfaces.EnvelopeCodec;
+import io.openraven.data.shared.EnvelopeCodecs;
+import io.openraven.data.shared.JacksonEnvelopeCodec;
 import io.sentry.Sentry;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Profile;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.core.KafkaOperations;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFuture;
 
 @Component
 @Profile("consumer")
@@ -30,67 +42,181 @@ public class DiscoveredEntitiesListener {
 
   private static final Logger LOG = LoggerFactory.getLogger(DiscoveredEntitiesListener.class);
 
-  private static final ObjectMapper MAPPER = new ObjectMapper()
-      .activateDefaultTyping(LaissezFaireSubTypeValidator.instance,
-          ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.WRAPPER_ARRAY);
-
-  private final KafkaOperations<Long, String> deadLetterOperations;
+  private final KafkaTemplate<String, byte[]> deadLetterOperations;
+  private final String deadLetterTopic;
   private final ElasticSearchOperations elasticSearchOperations;
+  private final EnvelopeCodecs envelopeCodecs;
+  private final KeyOrderedExecutor workers;
+  private final long saveTimeoutNanos;
 
-  public DiscoveredEntitiesListener(final KafkaOperations<Long, String> deadLetterOperations,
-      ElasticSearchOperations elasticSearchOperations) {
+  public DiscoveredEntitiesListener(final KafkaTemplate<String, byte[]> deadLetterOperations,
+      ElasticSearchOperations elasticSearchOperations, EnvelopeCodecs envelopeCodecs,
+      KeyOrderedExecutor workers, AssetsConsumerProperties consumerProperties) {
     this.deadLetterOperations = deadLetterOperations;
+    this.deadLetterTopic = consumerProperties.getDeadLetter().getTopic();
     this.elasticSearchOperations = elasticSearchOperations;
+    this.envelopeCodecs = envelopeCodecs;
+    this.workers = workers;
+    this.saveTimeoutNanos = TimeUnit.MILLISECONDS
+        .toNanos(consumerProperties.getConsumer().getSaveTimeoutMillis());
   }
 
+  /**
+   * Indexes a batch of records in bulk and only then acknowledges it. Records which can't be read
+   * or indexed go to the DLQ; if that fails too, the batch isn't acknowledged and is delivered
+   * again, so every record is either indexed or dead lettered at least once. So is a batch with a
+   * record Elasticsearch was too busy to take, or which isn't indexed within {@code
+   * kafka.consumer.save-timeout-millis}. The records are decoded and queued for indexing on the
+   * {@link KeyOrderedExecutor}, in order per key.
+   */
   @KafkaListener(id = "discoveredEntitiesListener", groupId = "${openraven.app.v1.kafka.consumer.group}",
       topics = "${openraven.app.v1.kafka.consumer.topic}")
-  public void onMessage(final ConsumerRecord<Long, String> record) {
-    final Envelope dataEnvelope;
-    final String recordValue = record.value();
-    String entityId;
-    try {
-      dataEnvelope = MAPPER.readValue(recordValue, Envelope.class);
-      entityId = dataEnvelope.contents.arn;
+  public void onMessage(final List<ConsumerRecord<String, byte[]>> records,
+      final Acknowledgment acknowledgment) {
+    final List<ListenableFuture<SendResult<String, byte[]>>> deadLetters = new ArrayList<>();
+    final List<CompletableFuture<PendingSave>> handedOver = new ArrayList<>(records.size());
+    for (ConsumerRecord<String, byte[]> record : records) {
+      handedOver.add(workers.submit(record.key(), record.offset(), () -> handOver(record)));
+    }
+    final long deadline = System.nanoTime() + saveTimeoutNanos;
+    final List<PendingSave> saves = new ArrayList<>(records.size());
+    for (CompletableFuture<PendingSave> save : handedOver) {
+      try {
+        saves.add(await(save, deadline));
+      } catch (ExecutionException | TimeoutException e) {
+        throw new IllegalStateException("Unable to hand the batch over, it will be redelivered", e);
+      }
+    }
 
-    } catch (IOException e) {
-      LOG.warn("Bogus Envelope JSON: '{}'", recordValue, e);
-      sendToDeadLetterQueue(recordValue);
-      return;
+    // the whole batch is waited on, so there's no point waiting for the bulk request to fill up
+    elasticSearchOperations.flush();
+
+    for (PendingSave save : saves) {
+      if (save.saved == null) {
+        deadLetters.add(sendToDeadLetterQueue(save.record));
+        continue;
+      }
+      try {
+        await(save.saved, deadline);
+        LOG.info("Saved resource id {} in discovery session {}", save.entityId,
+            save.discoverySession);
+      } catch (TimeoutException e) {
+        throw new IllegalStateException("Timed out saving resource with id " + save.entityId
+            + ", the batch will be redelivered", e);
+      } catch (ExecutionException | CancellationException ex) {
+        if (ex.getCause() instanceof BulkRejectedException) {
+          throw new IllegalStateException("Elasticsearch rejected resource with id "
+              + save.entityId + ", the batch will be redelivered", ex.getCause());
+        }
+        LOG.error("Was unable to save resource with id {} in discovery session {}", save.entityId,
+            save.discoverySession, ex.getCause() == null ? ex : ex.getCause());
+        deadLetters.add(sendToDeadLetterQueue(save.record));
+      }
     }
 
+    for (ListenableFuture<SendResult<String, byte[]>> deadLetter : deadLetters) {
+      try {
+        deadLetter.get(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted delivering to DLQ", e);
+      } catch (ExecutionException | TimeoutException e) {
+        Sentry.capture(e);
+        throw new IllegalStateException("Unable to deliver to DLQ, the batch will be redelivered",
+            e);
+      }
+    }
+
+    acknowledgment.acknowledge();
+    LOG.debug("Acknowledged {} records, {} of them dead lettered", records.size(),
+        deadLetters.size());
+  }
+
+  /**
+   * Decodes the record and queues its resource for indexing. Records in the plain JSON format
+   * aren't decoded at all: their resource is passed through to the document as it is.
+   */
+  private PendingSave handOver(ConsumerRecord<String, byte[]> record) {
     try {
+      final EnvelopeCodec codec = envelopeCodecs.forHeaders(record.headers());
+      if (JacksonEnvelopeCodec.JSON.equals(codec.getName())) {
+        final PassthroughEnvelope envelope = PassthroughEnvelope.parse(record.value());
+        LOG.info("Received Record of type {} in discovery session {}",
+            envelope.getResourceType(),
+            envelope.getDiscoverySession());
+        return new PendingSave(record, envelope.getArn(), envelope.getDiscoverySession(),
+            saving(() -> elasticSearchOperations.save(envelope)));
+      }
+
+      final Envelope dataEnvelope = codec.decode(record.value());
+      if (dataEnvelope.contents == null) {
+        throw new IOException("Envelope has no contents");
+      }
       LOG.info("Received Record of type {} in discovery session {}",
           dataEnvelope.contents.resourceType,
           dataEnvelope.discoverySession);
+      return new PendingSave(record, dataEnvelope.contents.arn, dataEnvelope.discoverySession,
+          saving(() -> elasticSearchOperations.save(dataEnvelope.contents)));
+    } catch (IOException e) {
+      LOG.warn("Bogus Envelope at offset {} of partition {}", record.offset(),
+          record.partition(), e);
+      return new PendingSave(record, null, null, null);
+    }
+  }
 
-      final boolean saveOK = elasticSearchOperations.save(dataEnvelope.contents);
-      if (saveOK) {
-        LOG.info("Saved resource id {} in discovery session {}", entityId,
-            dataEnvelope.discoverySession);
-      } else {
-        LOG.error("Was unable to save resource with id {} in discovery session {}", entityId,
-            dataEnvelope.discoverySession);
-        sendToDeadLetterQueue(recordValue);
-      }
+  /**
+   * Waits for a future of the batch until the batch's deadline.
+   */
+  private static <T> T await(CompletableFuture<T> future, long deadline)
+      throws ExecutionException, TimeoutException {
+    try {
+      return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted waiting for the batch", e);
+    }
+  }
 
+  private static CompletableFuture<Void> saving(Supplier<CompletableFuture<Void>> save) {
+    try {
+      return save.get();
     } catch (Exception ex) {
-      LOG.error("Was unable to save resource with id {} in discovery session {}", entityId,
-          dataEnvelope.discoverySession, ex);
-      sendToDeadLetterQueue(recordValue);
+      return CompletableFuture.failedFuture(ex);
     }
   }
 
   /**
-   * Attempts to deliver to the DLQ, logging the exception if unable to do so within 10 seconds.
+   * Hands the record to the DLQ; the caller waits for it before acknowledging the batch.
    */
-  private void sendToDeadLetterQueue(String data) {
-    try {
-      deadLetterOperations.sendDefault(data).get(10, TimeUnit.SECONDS);
-    } catch (Exception e) {
-      LOG.error("Unable to deliver to DLQ while handling deserialization exception", e);
-      Sentry.capture(e);
+  private ListenableFuture<SendResult<String, byte[]>> sendToDeadLetterQueue(
+      ConsumerRecord<String, byte[]> record) {
+    // as received, header included, so the record can be read back with the same codec
+    return deadLetterOperations.send(new ProducerRecord<>(deadLetterTopic, null, record.key(),
+        record.value(), record.headers()));
+  }
+
+  /**
+   * A record of the batch whose resource has been handed to Elasticsearch, or which couldn't be
+   * decoded, in which case it has no outcome.
+   */
+  private static class PendingSave {
+
+    private final ConsumerRecord<String, byte[]> record;
+
+    private final String entityId;
+
+    private final String discoverySession;
+
+    private final CompletableFuture<Void> saved;
+
+    PendingSave(ConsumerRecord<String, byte[]> record, String entityId, String discoverySession,
+        CompletableFuture<Void> saved) {
+      this.record = record;
+      this.entityId = entityId;
+      this.discoverySession = discoverySession;
+      this.saved = saved;
     }
+
   }
 
 }
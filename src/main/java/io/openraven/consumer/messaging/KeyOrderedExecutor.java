@@ -0,0 +1,73 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.consumer.messaging;
+
+import io.openraven.consumer.properties.AssetsConsumerProperties;
+import io.sentry.Sentry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * The worker threads records are processed on, shared by every listener container. Each thread
+ * runs its tasks one at a time in the order they were submitted, and all tasks for the same key
+ * go to the same thread, so two records of the same resource are never processed out of order
+ * while records of different resources are processed in parallel.
+ */
+@Component
+@Profile("consumer")
+public class KeyOrderedExecutor implements DisposableBean {
+
+  private final ExecutorService[] lanes;
+
+  public KeyOrderedExecutor(AssetsConsumerProperties consumerProperties) {
+    final int workerThreads = consumerProperties.getConsumer().getWorkerThreads();
+    this.lanes = new ExecutorService[workerThreads > 0 ? workerThreads
+        : Runtime.getRuntime().availableProcessors()];
+    final ThreadFactory threadFactory = threadFactory("consumer-worker");
+    for (int i = 0; i < lanes.length; i++) {
+      lanes[i] = Executors.newSingleThreadExecutor(threadFactory);
+    }
+  }
+
+  /**
+   * Runs {@code task} after every task submitted earlier for the same key.
+   *
+   * @param key the record key, or {@code null} for a record which needs no ordering
+   * @param any picks the thread for a {@code null} key, e.g. the record's offset
+   */
+  public <T> CompletableFuture<T> submit(String key, long any, Supplier<T> task) {
+    final int lane = key == null ? (int) Math.floorMod(any, (long) lanes.length)
+        : Math.floorMod(key.hashCode(), lanes.length);
+    return CompletableFuture.supplyAsync(task, lanes[lane]);
+  }
+
+  @Override
+  public void destroy() {
+    for (ExecutorService lane : lanes) {
+      lane.shutdownNow();
+    }
+  }
+
+  private static ThreadFactory threadFactory(String prefix) {
+    final AtomicInteger counter = new AtomicInteger();
+    return runnable -> {
+      Thread result = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+      result.setDaemon(true);
+      result.setUncaughtExceptionHandler((t, e) -> Sentry.capture(e));
+      return result;
+    };
+  }
+
+}
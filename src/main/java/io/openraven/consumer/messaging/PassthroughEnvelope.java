@@ -0,0 +1,182 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.consumer.messaging;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import io.openraven.data.shared.JacksonEnvelopeCodec;
+import io.openraven.data.shared.ReusableByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An envelope published with the {@link JacksonEnvelopeCodec#json()} codec, read in a single
+ * streaming pass without decoding its resource: only the few fields needed to route and log it
+ * are pulled out, and the rest of the resource's JSON is copied into the document as the bytes it
+ * arrived as.
+ */
+public class PassthroughEnvelope {
+
+  private static final JsonFactory jsonFactory = new JsonFactory();
+
+  private static final String DOCUMENT_ID = "documentId";
+
+  private static final String UPDATED_ISO = "updatedIso";
+
+  // replaced by the consumer, or only there for the codec
+  private static final Set<String> DROPPED_FIELDS = Set
+      .of(DOCUMENT_ID, UPDATED_ISO, JacksonEnvelopeCodec.CLASS_PROPERTY);
+
+  private final byte[] value;
+
+  // start and end offsets, into value, of every field of the resource which is kept
+  private final List<int[]> fields = new ArrayList<>();
+
+  private String discoverySession;
+
+  private String arn;
+
+  private String resourceType;
+
+  private boolean hasContents;
+
+  private PassthroughEnvelope(byte[] value) {
+    this.value = value;
+  }
+
+  /**
+   * @throws IOException if the value isn't an envelope with contents
+   */
+  public static PassthroughEnvelope parse(byte[] value) throws IOException {
+    final PassthroughEnvelope result = new PassthroughEnvelope(value);
+    try (JsonParser parser = jsonFactory.createParser(value)) {
+      result.parseEnvelope(parser);
+    }
+    if (!result.hasContents) {
+      throw new IOException("Envelope has no contents");
+    }
+    return result;
+  }
+
+  public String getDiscoverySession() {
+    return discoverySession;
+  }
+
+  public String getArn() {
+    return arn;
+  }
+
+  public String getResourceType() {
+    return resourceType;
+  }
+
+  /**
+   * The resource as the document to index: its fields as published, plus the given {@code
+   * documentId} and {@code updatedIso}.
+   */
+  public byte[] toDocument(String documentId, String updatedIso) {
+    final ReusableByteArrayOutputStream out = ReusableByteArrayOutputStream.forCurrentThread();
+    out.write('{');
+    writeField(out, DOCUMENT_ID, documentId);
+    out.write(',');
+    writeField(out, UPDATED_ISO, updatedIso);
+    for (int[] field : fields) {
+      out.write(',');
+      out.write(value, field[0], field[1] - field[0]);
+    }
+    out.write('}');
+    return out.toByteArray();
+  }
+
+  private void parseEnvelope(JsonParser parser) throws IOException {
+    expect(parser.nextToken(), JsonToken.START_OBJECT);
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      final String name = parser.getCurrentName();
+      final JsonToken token = parser.nextToken();
+      if ("contents".equals(name) && token == JsonToken.START_OBJECT) {
+        parseContents(parser);
+        hasContents = true;
+      } else if ("discoverySession".equals(name)) {
+        discoverySession = parser.getValueAsString();
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  /**
+   * Records where each field of the resource starts and ends. A field ends where the next one,
+   * or the end of the object, starts, less the separating comma and whitespace.
+   */
+  private void parseContents(JsonParser parser) throws IOException {
+    int start = -1;
+    while (true) {
+      final JsonToken token = parser.nextToken();
+      final int offset = (int) parser.getTokenLocation().getByteOffset();
+      if (start >= 0) {
+        fields.add(new int[]{start, fieldEnd(offset)});
+        start = -1;
+      }
+      if (token != JsonToken.FIELD_NAME) {
+        expect(token, JsonToken.END_OBJECT);
+        return;
+      }
+
+      final String name = parser.getCurrentName();
+      parser.nextToken();
+      if ("arn".equals(name)) {
+        arn = parser.getValueAsString();
+      } else if ("resourceType".equals(name)) {
+        resourceType = parser.getValueAsString();
+      } else {
+        parser.skipChildren();
+      }
+      if (!DROPPED_FIELDS.contains(name)) {
+        start = offset;
+      }
+    }
+  }
+
+  private int fieldEnd(int next) {
+    int end = next;
+    while (end > 0 && Character.isWhitespace(value[end - 1])) {
+      end--;
+    }
+    if (end > 0 && value[end - 1] == ',') {
+      end--;
+    }
+    while (end > 0 && Character.isWhitespace(value[end - 1])) {
+      end--;
+    }
+    return end;
+  }
+
+  private static void writeField(ReusableByteArrayOutputStream out, String name, String value) {
+    out.write('"');
+    final byte[] nameBytes = name.getBytes(StandardCharsets.US_ASCII);
+    out.write(nameBytes, 0, nameBytes.length);
+    out.write('"');
+    out.write(':');
+    out.write('"');
+    final byte[] valueBytes = JsonStringEncoder.getInstance().quoteAsUTF8(value);
+    out.write(valueBytes, 0, valueBytes.length);
+    out.write('"');
+  }
+
+  private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+    if (actual != expected) {
+      throw new IOException("Expected " + expected + " in envelope but found " + actual);
+    }
+  }
+
+}
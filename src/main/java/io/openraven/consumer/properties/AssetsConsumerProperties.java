@@ -66,6 +66,16 @@ public class AssetsConsumerProperties {
 
 		private String topic;
 
+		private int concurrency = 1;
+
+		private int workerThreads;
+
+		private int maxDeliveryAttempts = 10;
+
+		private long retryIntervalMillis = 5000;
+
+		private long saveTimeoutMillis = 120_000;
+
 		public String getGroup() {
 			return group;
 		}
@@ -82,6 +92,68 @@ public class AssetsConsumerProperties {
 			this.topic = topic;
 		}
 
+		public int getConcurrency() {
+			return concurrency;
+		}
+
+		/**
+		 * The number of listener containers, each with its own Kafka consumer and its share of
+		 * the topic's partitions.
+		 */
+		public void setConcurrency(final int concurrency) {
+			this.concurrency = concurrency;
+		}
+
+		public int getWorkerThreads() {
+			return workerThreads;
+		}
+
+		/**
+		 * The number of threads, shared by all containers, which decode and index the records of a
+		 * batch in parallel; records with the same key always go to the same thread. {@code 0}
+		 * means one per available processor.
+		 */
+		public void setWorkerThreads(final int workerThreads) {
+			this.workerThreads = workerThreads;
+		}
+
+		public int getMaxDeliveryAttempts() {
+			return maxDeliveryAttempts;
+		}
+
+		/**
+		 * How often a batch whose listener fails is delivered in all before its records are sent
+		 * to the DLQ and it is committed. It is still redelivered for as long as the DLQ can't
+		 * take the records.
+		 */
+		public void setMaxDeliveryAttempts(final int maxDeliveryAttempts) {
+			this.maxDeliveryAttempts = maxDeliveryAttempts;
+		}
+
+		public long getRetryIntervalMillis() {
+			return retryIntervalMillis;
+		}
+
+		/**
+		 * How long the container waits before delivering a failed batch again.
+		 */
+		public void setRetryIntervalMillis(final long retryIntervalMillis) {
+			this.retryIntervalMillis = retryIntervalMillis;
+		}
+
+		public long getSaveTimeoutMillis() {
+			return saveTimeoutMillis;
+		}
+
+		/**
+		 * How long a batch waits for its records to be indexed before giving up on them and
+		 * having the batch delivered again. It should allow for a bulk request in flight ahead of
+		 * the batch's own, at the Elasticsearch socket timeout each.
+		 */
+		public void setSaveTimeoutMillis(final long saveTimeoutMillis) {
+			this.saveTimeoutMillis = saveTimeoutMillis;
+		}
+
 	}
 
 }
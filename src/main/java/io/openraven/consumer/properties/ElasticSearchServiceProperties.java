@@ -24,6 +24,10 @@ public class ElasticSearchServiceProperties {
 
   private String protocol;
 
+  private Http http = new Http();
+
+  private Bulk bulk = new Bulk();
+
   public String getProtocol() {
     return protocol;
   }
@@ -63,4 +67,130 @@ public class ElasticSearchServiceProperties {
   public void setHost(String host) {
     this.host = host;
   }
+
+  public Http getHttp() {
+    return http;
+  }
+
+  public void setHttp(Http http) {
+    this.http = http;
+  }
+
+  public Bulk getBulk() {
+    return bulk;
+  }
+
+  public void setBulk(Bulk bulk) {
+    this.bulk = bulk;
+  }
+
+  /**
+   * Tuning of the one HTTP client every Elasticsearch call goes through.
+   */
+  public static class Http {
+
+    private int maxConnections = 100;
+
+    private int connectionTimeoutMillis = 2_000;
+
+    private int socketTimeoutMillis = 30_000;
+
+    private long keepAliveMillis = 60_000;
+
+    public int getMaxConnections() {
+      return maxConnections;
+    }
+
+    /**
+     * The size of the connection pool; there is only one host, so it may use all of them.
+     */
+    public void setMaxConnections(int maxConnections) {
+      this.maxConnections = maxConnections;
+    }
+
+    public int getConnectionTimeoutMillis() {
+      return connectionTimeoutMillis;
+    }
+
+    public void setConnectionTimeoutMillis(int connectionTimeoutMillis) {
+      this.connectionTimeoutMillis = connectionTimeoutMillis;
+    }
+
+    public int getSocketTimeoutMillis() {
+      return socketTimeoutMillis;
+    }
+
+    public void setSocketTimeoutMillis(int socketTimeoutMillis) {
+      this.socketTimeoutMillis = socketTimeoutMillis;
+    }
+
+    public long getKeepAliveMillis() {
+      return keepAliveMillis;
+    }
+
+    /**
+     * How long an idle connection is kept for reuse, unless the server asks for less.
+     */
+    public void setKeepAliveMillis(long keepAliveMillis) {
+      this.keepAliveMillis = keepAliveMillis;
+    }
+
+  }
+
+  /**
+   * How documents are grouped into {@code _bulk} requests: a request is sent as soon as any of
+   * the limits is reached.
+   */
+  public static class Bulk {
+
+    private int maxActions = 1000;
+
+    private long maxBytes = 5 * 1024 * 1024;
+
+    private long flushIntervalMillis = 1_000;
+
+    private int concurrentRequests = 1;
+
+    public int getMaxActions() {
+      return maxActions;
+    }
+
+    public void setMaxActions(int maxActions) {
+      this.maxActions = maxActions;
+    }
+
+    public long getMaxBytes() {
+      return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    public long getFlushIntervalMillis() {
+      return flushIntervalMillis;
+    }
+
+    /**
+     * The longest a document waits for its request to fill up.
+     */
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+      this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    public int getConcurrentRequests() {
+      return concurrentRequests;
+    }
+
+    /**
+     * How many requests may be in flight while the next one fills up: {@code 0} sends each
+     * request from the thread which filled it, {@code 1} sends it in the background. Higher values
+     * are rejected, since two updates of the same document in different requests could then be
+     * applied out of order.
+     */
+    public void setConcurrentRequests(int concurrentRequests) {
+      this.concurrentRequests = concurrentRequests;
+    }
+
+  }
 }
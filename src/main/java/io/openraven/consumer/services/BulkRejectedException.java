@@ -0,0 +1,22 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.consumer.services;
+
+import java.io.IOException;
+
+/**
+ * A document Elasticsearch turned away because it was overloaded, rather than because anything
+ * is wrong with it, so it is worth sending again later.
+ */
+public class BulkRejectedException extends IOException {
+
+  public BulkRejectedException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+}
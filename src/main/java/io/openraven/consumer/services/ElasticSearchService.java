@@ -13,12 +13,21 @@ import io.openraven.consumer.properties.ElasticSearchServiceProperties;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import org.apache.http.HttpHost;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.search.SearchRequest;
@@ -29,22 +38,35 @@ import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.core.CountRequest;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 
+/**
+ * Talks to Elasticsearch through a single client, created with the service and closed with the
+ * context, whose pooled keep-alive connections and IO threads are shared by every call. Documents
+ * written through {@link #bulkWriteDocument} are grouped into {@code _bulk} requests.
+ */
 @Component
-public class ElasticSearchService {
+@Profile("consumer")
+public class ElasticSearchService implements DisposableBean {
 
   private final ElasticSearchServiceProperties elasticSearch;
   private final ObjectMapper mapper;
+  private final RestHighLevelClient client;
+  private final BulkProcessor bulkProcessor;
   private final Logger log = LoggerFactory.getLogger(ElasticSearchService.class);
 
   public ElasticSearchService(ElasticSearchServiceProperties serviceProperties,
@@ -52,6 +74,20 @@ public class ElasticSearchService {
 
     this.elasticSearch = serviceProperties;
     this.mapper = mapper;
+    this.client = getRestHighLevelClient();
+    this.bulkProcessor = getBulkProcessor();
+  }
+
+  @Override
+  public void destroy() throws IOException {
+    try {
+      // sends what has been queued and waits for the requests in flight
+      bulkProcessor.awaitClose(30, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      client.close();
+    }
   }
 
   private BasicCredentialsProvider getCredentialsProvider(String username, String password) {
@@ -61,55 +97,90 @@ public class ElasticSearchService {
   }
 
   private RestHighLevelClient getRestHighLevelClient() {
+    final ElasticSearchServiceProperties.Http http = elasticSearch.getHttp();
     RestClientBuilder client = RestClient.builder(
         new HttpHost(elasticSearch.getHost(), elasticSearch.getPort(),
             elasticSearch.getProtocol()));
 
-    if (!(StringUtils.isEmpty(elasticSearch.getUsername()) || StringUtils
-        .isEmpty(elasticSearch.getPassword()))) {
-      client.setHttpClientConfigCallback(httpClientBuilder -> {
+    client.setRequestConfigCallback(requestConfigBuilder -> requestConfigBuilder
+        .setConnectTimeout(http.getConnectionTimeoutMillis())
+        .setSocketTimeout(http.getSocketTimeoutMillis()));
+
+    client.setHttpClientConfigCallback(httpClientBuilder -> {
+      httpClientBuilder
+          .setMaxConnTotal(http.getMaxConnections())
+          .setMaxConnPerRoute(http.getMaxConnections())
+          .setDefaultIOReactorConfig(IOReactorConfig.custom().setSoKeepAlive(true).build())
+          .setKeepAliveStrategy((response, context) -> {
+            final long requested = DefaultConnectionKeepAliveStrategy.INSTANCE
+                .getKeepAliveDuration(response, context);
+            return requested > 0 ? Math.min(requested, http.getKeepAliveMillis())
+                : http.getKeepAliveMillis();
+          });
+
+      if (!(StringUtils.isEmpty(elasticSearch.getUsername()) || StringUtils
+          .isEmpty(elasticSearch.getPassword()))) {
         httpClientBuilder.setDefaultCredentialsProvider(
             getCredentialsProvider(elasticSearch.getUsername(), elasticSearch.getPassword()));
+      }
 
-        return httpClientBuilder;
-      });
-    }
+      return httpClientBuilder;
+    });
 
     return new RestHighLevelClient(client);
   }
 
+  private BulkProcessor getBulkProcessor() {
+    final ElasticSearchServiceProperties.Bulk bulk = elasticSearch.getBulk();
+    // a second request in flight could apply an older update of a document after a newer one,
+    // undoing the per key ordering of the consumer's worker lanes
+    if (bulk.getConcurrentRequests() < 0 || bulk.getConcurrentRequests() > 1) {
+      throw new IllegalArgumentException(
+          "openraven.app.v1.services.elastic-search.bulk.concurrent-requests must be 0 or 1, not "
+              + bulk.getConcurrentRequests());
+    }
+    return BulkProcessor.builder(
+        (request, listener) -> client.bulkAsync(request, RequestOptions.DEFAULT, listener),
+        new BulkResultListener())
+        .setBulkActions(bulk.getMaxActions())
+        .setBulkSize(new ByteSizeValue(bulk.getMaxBytes()))
+        .setFlushInterval(TimeValue.timeValueMillis(bulk.getFlushIntervalMillis()))
+        .setConcurrentRequests(bulk.getConcurrentRequests())
+        // a retry resends only the rejected items, as a request of its own whose item ids don't
+        // match the original one, and could apply them after newer updates of the same
+        // documents; rejected documents fail instead, and the consumer redelivers their batch
+        .setBackoffPolicy(BackoffPolicy.noBackoff())
+        .build();
+  }
+
   public JsonNode getDocuments(String indexName,
       @Nullable Map<String, String> filters,
       int count) throws IOException {
-    try (RestHighLevelClient client = getRestHighLevelClient()) {
-      SearchRequest request = new SearchRequest(indexName);
+    SearchRequest request = new SearchRequest(indexName);
 
-      QueryBuilder queryBuilder;
-      if (filters != null) {
-        BoolQueryBuilder builder = QueryBuilders.boolQuery();
+    QueryBuilder queryBuilder;
+    if (filters != null) {
+      BoolQueryBuilder builder = QueryBuilders.boolQuery();
 
-        filters.forEach((key, value) -> builder.filter(QueryBuilders.termQuery(key, value)));
+      filters.forEach((key, value) -> builder.filter(QueryBuilders.termQuery(key, value)));
 
-        queryBuilder = builder;
-      } else {
-        queryBuilder = QueryBuilders.matchAllQuery();
-      }
+      queryBuilder = builder;
+    } else {
+      queryBuilder = QueryBuilders.matchAllQuery();
+    }
 
-      request
-          .source(SearchSourceBuilder.searchSource().size(count).query(queryBuilder));
+    request
+        .source(SearchSourceBuilder.searchSource().size(count).query(queryBuilder));
 
-      return mapper.convertValue(
-          Arrays.stream(client.search(request, RequestOptions.DEFAULT).getHits().getHits())
-              .map(SearchHit::getSourceAsMap).collect(Collectors.toList()), JsonNode.class);
-    }
+    return mapper.convertValue(
+        Arrays.stream(client.search(request, RequestOptions.DEFAULT).getHits().getHits())
+            .map(SearchHit::getSourceAsMap).collect(Collectors.toList()), JsonNode.class);
   }
 
   public JsonNode getDocument(String indexName, String documentId) throws IOException {
-    try (RestHighLevelClient client = getRestHighLevelClient()) {
-      return mapper.convertValue(
-          client.get(new GetRequest(indexName, documentId), RequestOptions.DEFAULT).getSource(),
-          JsonNode.class);
-    }
+    return mapper.convertValue(
+        client.get(new GetRequest(indexName, documentId), RequestOptions.DEFAULT).getSource(),
+        JsonNode.class);
   }
 
   public JsonNode writeDocument(String indexName, String documentId, JsonNode document)
@@ -119,27 +190,105 @@ public class ElasticSearchService {
 
   public JsonNode updateDocument(String indexName, String documentId, JsonNode document)
       throws IOException {
-    try (RestHighLevelClient client = getRestHighLevelClient()) {
-      UpdateRequest request = new UpdateRequest(indexName, documentId);
-      request.docAsUpsert(true);
-      request.doc(mapper.writeValueAsString(document), XContentType.JSON);
-      request.setRefreshPolicy(RefreshPolicy.WAIT_UNTIL);
+    UpdateRequest request = new UpdateRequest(indexName, documentId);
+    request.docAsUpsert(true);
+    request.doc(mapper.writeValueAsString(document), XContentType.JSON);
+    request.setRefreshPolicy(RefreshPolicy.WAIT_UNTIL);
 
-      client.update(request, RequestOptions.DEFAULT);
+    client.update(request, RequestOptions.DEFAULT);
 
-      return getDocument(indexName, documentId);
-    }
+    return getDocument(indexName, documentId);
+  }
+
+  /**
+   * Queues an upsert of the document for the next {@code _bulk} request. Nothing waits for an
+   * index refresh and the document isn't read back.
+   *
+   * @return completes once Elasticsearch has accepted the document, or exceptionally with the
+   * reason it, or the whole request, was rejected; with a {@link BulkRejectedException} if
+   * Elasticsearch was too busy to take it
+   */
+  public CompletableFuture<Void> bulkWriteDocument(String indexName, String documentId,
+      byte[] document) {
+    final TrackedUpdateRequest request = new TrackedUpdateRequest(indexName, documentId);
+    request.docAsUpsert(true);
+    request.doc(document, XContentType.JSON);
+    bulkProcessor.add(request);
+    return request.result;
+  }
+
+  /**
+   * Sends whatever has been queued by {@link #bulkWriteDocument} without waiting for the flush
+   * interval, for a caller about to wait on all of it.
+   */
+  public void flush() {
+    bulkProcessor.flush();
   }
 
   public void deleteDocument(String indexName, String documentId) throws IOException {
-    try (RestHighLevelClient client = getRestHighLevelClient()) {
-      client.delete(new DeleteRequest(indexName, documentId), RequestOptions.DEFAULT);
-    }
+    client.delete(new DeleteRequest(indexName, documentId), RequestOptions.DEFAULT);
   }
 
   public long countDocuments(String indexName) throws IOException {
-    try (RestHighLevelClient client = getRestHighLevelClient()) {
-      return client.count(new CountRequest(indexName), RequestOptions.DEFAULT).getCount();
+    return client.count(new CountRequest(indexName), RequestOptions.DEFAULT).getCount();
+  }
+
+  /**
+   * An update which carries the future its caller is waiting on through the bulk request.
+   */
+  private static class TrackedUpdateRequest extends UpdateRequest {
+
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+    TrackedUpdateRequest(String index, String id) {
+      super(index, id);
+    }
+
+  }
+
+  /**
+   * Completes the future of every document in a bulk request with the outcome of its item.
+   */
+  private class BulkResultListener implements BulkProcessor.Listener {
+
+    @Override
+    public void beforeBulk(long executionId, BulkRequest request) {
+      log.debug("Sending bulk request {} of {} documents", executionId,
+          request.numberOfActions());
     }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+      if (response.hasFailures()) {
+        log.warn("Bulk request {} had failures: {}", executionId,
+            response.buildFailureMessage());
+      }
+      for (BulkItemResponse item : response.getItems()) {
+        final CompletableFuture<Void> result = resultOf(request, item.getItemId());
+        if (item.isFailed() && item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+          result.completeExceptionally(
+              new BulkRejectedException(item.getFailureMessage(), item.getFailure().getCause()));
+        } else if (item.isFailed()) {
+          result.completeExceptionally(
+              new IOException(item.getFailureMessage(), item.getFailure().getCause()));
+        } else {
+          result.complete(null);
+        }
+      }
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+      log.error("Bulk request {} of {} documents failed", executionId,
+          request.numberOfActions(), failure);
+      for (int i = 0; i < request.requests().size(); i++) {
+        resultOf(request, i).completeExceptionally(failure);
+      }
+    }
+
+    private CompletableFuture<Void> resultOf(BulkRequest request, int item) {
+      return ((TrackedUpdateRequest) request.requests().get(item)).result;
+    }
+
   }
 }
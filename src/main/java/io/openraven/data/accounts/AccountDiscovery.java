@@ -7,6 +7,7 @@
  */
 package io.openraven.data.accounts;
 
+import io.openraven.data.interfaces.DiscoverySession;
 import io.openraven.data.interfaces.Envelope;
 import io.openraven.data.interfaces.IDiscovery;
 import io.openraven.producer.properties.DiscoveryProperties;
@@ -22,8 +23,6 @@ import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.iam.IamClient;
 
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.List;
 
 import static java.lang.String.format;
 
@@ -49,27 +48,23 @@ public class AccountDiscovery implements IDiscovery {
 
     /**
      * Executes a discovery run for this resource type. * @param resourceID is an optional (can be
-     * null) filter to only run discovery for that resource ID * @return JSON of the discovered
-     * resource(s), used only to confirm discovery took place and gathered expected data
+     * null) filter to only run discovery for that resource ID
      */
-    public List<String> run(@Nullable String resourceID, String discoverySession) {
-        List<String> jsons = new ArrayList<>();
+    public void run(@Nullable String resourceID, DiscoverySession session) {
         String region = Region.US_EAST_1.id();
         try {
-            clientProvider.applyClient(region,
+            clientProvider.applyClient(session, region,
                     (client, credentialsProvider) -> {
-                        final String accountId = getAccountId(credentialsProvider, region);
-                        discoverAccounts(accountId, jsons, discoverySession, client);
+                        final String accountId = session.getAccountId(credentialsProvider, region);
+                        discoverAccounts(accountId, session, client);
                     });
         } catch (SdkServiceException e) {
             LOG.error(format("Failed for region %s", region), e);
         }
-
-        return jsons;
-
     }
 
-    private void discoverAccounts(String accountId, List<String> jsons, String discoverySession, IamClient client) {
+    private void discoverAccounts(String accountId, DiscoverySession session, IamClient client) {
+        final String discoverySession = session.getId();
         AccountResource data = new AccountResource();
         data.arn = format("arn:aws:organizations::%s", accountId);
         data.awsAccountId = accountId;
@@ -81,7 +76,7 @@ public class AccountDiscovery implements IDiscovery {
         final Envelope envelope = new Envelope(
                 this.discoveryProperties.getIntegration(), discoverySession,
                 Instant.now().toString(), data);
-        String json = discoveryServices.sendToKafka(envelope, data.resourceId);
-        jsons.add(json);
+        byte[] json = discoveryServices.sendToKafka(envelope, data.resourceId);
+        session.emit(json);
     }
 }
@@ -23,7 +23,9 @@ public class IamClientFunctionRunner extends ClientFunctionRunner<IamClient> {
 
     @Override
     public IamClient createClient(String region, AwsCredentialsProvider credentialsProvider) {
-        return IamClient.builder().region(Region.AWS_GLOBAL).credentialsProvider(credentialsProvider).build();
+        return configure(IamClient.builder(), region, credentialsProvider)
+                .region(Region.AWS_GLOBAL)
+                .build();
     }
 
 }
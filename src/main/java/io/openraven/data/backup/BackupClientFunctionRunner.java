@@ -12,7 +12,6 @@ import io.openraven.producer.properties.RoleArnConfig;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
-import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.backup.BackupClient;
 
 @Profile("BACKUP")
@@ -25,7 +24,8 @@ public class BackupClientFunctionRunner extends ClientFunctionRunner<BackupClien
 
 	@Override
 	protected BackupClient createClient(String region, AwsCredentialsProvider credentialsProvider) {
-		return BackupClient.builder().credentialsProvider(credentialsProvider).region(Region.of(region)).build();
+		return configure(BackupClient.builder(), region, credentialsProvider)
+				.build();
 	}
 
 }
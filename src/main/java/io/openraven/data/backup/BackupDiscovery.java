@@ -7,14 +7,13 @@
  */
 package io.openraven.data.backup;
 
+import io.openraven.data.interfaces.DiscoverySession;
 import io.openraven.data.interfaces.Envelope;
 import io.openraven.data.interfaces.IDiscovery;
 import io.openraven.data.shared.PayloadUtils;
 import io.openraven.producer.properties.DiscoveryProperties;
 import io.openraven.producer.services.DiscoveryServices;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,7 +21,6 @@ import org.springframework.context.annotation.Profile;
 import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
-import software.amazon.awssdk.core.exception.SdkServiceException;
 import software.amazon.awssdk.services.backup.BackupClient;
 import software.amazon.awssdk.services.backup.model.BackupVaultListMember;
 import software.amazon.awssdk.services.backup.model.ListTagsRequest;
@@ -49,28 +47,19 @@ public class BackupDiscovery implements IDiscovery {
   }
 
   @Override
-  public List<String> run(String resourceID, String discoverySession) {
-    List<String> jsons = new ArrayList<>();
-
-    for (String region : discoveryProperties.getAws()) {
-      try {
-        clientProvider.applyClient(region,
-            (client, credentialsProvider) -> doRun(resourceID, discoverySession,
-                jsons, region, client, credentialsProvider));
-      } catch (SdkServiceException e) {
-        LOG.error(String.format("Failed for region %s", region), e);
-      }
-    }
-
-    return jsons;
+  public void run(String resourceID, DiscoverySession session) {
+    clientProvider.applyClientAsync(session, discoveryProperties.getAws(),
+        (region, client, credentialsProvider) -> doRun(resourceID, session,
+            region, client, credentialsProvider)).join();
   }
 
-  private void doRun(@Nullable String resourceID, String discoverySession, List<String> jsons,
+  private void doRun(@Nullable String resourceID, DiscoverySession session,
       String region,
       BackupClient client, AwsCredentialsProvider credentialsProvider) {
     LOG.info("Starting discovery in region {}", region);
-    final String accountId = getAccountId(credentialsProvider, region);
-    client.listBackupVaults().backupVaultList().stream()
+    final String discoverySession = session.getId();
+    final String accountId = session.getAccountId(credentialsProvider, region);
+    client.listBackupVaultsPaginator().backupVaultList().stream()
         .filter(
             vault -> (resourceID == null || vault.backupVaultArn().equalsIgnoreCase(resourceID)))
         .forEach(backupVaultListMember -> {
@@ -86,8 +75,8 @@ public class BackupDiscovery implements IDiscovery {
               discoveryProperties.getIntegration(),
               discoverySession, Instant.now().toString(),
               data);
-          String json = discoveryServices.sendToKafka(envelope, id);
-          jsons.add(json);
+          byte[] json = discoveryServices.sendToKafka(envelope, id);
+          session.emit(json);
         });
 
     LOG.info("Finished discovery in region {}", region);
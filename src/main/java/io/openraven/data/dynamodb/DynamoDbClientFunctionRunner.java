@@ -11,7 +11,6 @@ import io.openraven.data.shared.ClientFunctionRunner;
 import io.openraven.producer.properties.RoleArnConfig;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
-import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 
 @Component
@@ -23,7 +22,8 @@ public class DynamoDbClientFunctionRunner extends ClientFunctionRunner<DynamoDbC
 
   @Override
   protected DynamoDbClient createClient(String region, AwsCredentialsProvider credentialsProvider) {
-    return DynamoDbClient.builder().credentialsProvider(credentialsProvider).region(Region.of(region)).build();
+    return configure(DynamoDbClient.builder(), region, credentialsProvider)
+        .build();
   }
 
 }
@@ -11,14 +11,15 @@ import static org.springframework.util.StringUtils.isEmpty;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.openraven.data.interfaces.DiscoverySession;
 import io.openraven.data.interfaces.Envelope;
 import io.openraven.data.interfaces.IDiscovery;
 import io.openraven.data.shared.PayloadUtils;
 import io.openraven.producer.properties.DiscoveryProperties;
 import io.openraven.producer.services.DiscoveryServices;
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.javatuples.Pair;
@@ -30,11 +31,12 @@ import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.core.SdkPojo;
-import software.amazon.awssdk.core.exception.SdkServiceException;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.DescribeGlobalTableRequest;
 import software.amazon.awssdk.services.dynamodb.model.DescribeTableRequest;
+import software.amazon.awssdk.services.dynamodb.model.GlobalTable;
 import software.amazon.awssdk.services.dynamodb.model.GlobalTableDescription;
+import software.amazon.awssdk.services.dynamodb.model.ListGlobalTablesRequest;
 import software.amazon.awssdk.services.dynamodb.model.ListTagsOfResourceRequest;
 import software.amazon.awssdk.services.dynamodb.model.ListTagsOfResourceResponse;
 import software.amazon.awssdk.services.dynamodb.model.TableDescription;
@@ -66,20 +68,10 @@ public class DynamoDbDiscovery implements IDiscovery {
   }
 
   @Override
-  public List<String> run(String resourceID, String discoverySession) {
-    List<String> jsons = new ArrayList<>();
-
-    for (String region : discoveryProperties.getAws()) {
-      try {
-        clientProvider.applyClient(region,
-            (client, credentialsProvider) -> doRun(resourceID, discoverySession,
-                jsons, region, client, credentialsProvider));
-      } catch (SdkServiceException e) {
-        LOG.error(String.format("Failed for region %s", region), e);
-      }
-    }
-
-    return jsons;
+  public void run(String resourceID, DiscoverySession session) {
+    clientProvider.applyClientAsync(session, discoveryProperties.getAws(),
+        (region, client, credentialsProvider) -> doRun(resourceID, session,
+            region, client, credentialsProvider)).join();
   }
 
   public static String getArn(SdkPojo inputObject) {
@@ -112,18 +104,19 @@ public class DynamoDbDiscovery implements IDiscovery {
   }
 
 
-  private void doRun(@Nullable String resourceID, String discoverySession, final List<String> jsons,
+  private void doRun(@Nullable String resourceID, DiscoverySession session,
       String region,
       DynamoDbClient client, AwsCredentialsProvider credentialsProvider) {
     LOG.info("Starting discovery in region {}", region);
-    final String accountId = getAccountId(credentialsProvider, region);
+    final String discoverySession = session.getId();
+    final String accountId = session.getAccountId(credentialsProvider, region);
     Stream.concat(
-        client.listTables().tableNames().stream()
+        client.listTablesPaginator().tableNames().stream()
             .map(tableName -> client
                 .describeTable(DescribeTableRequest.builder().tableName(tableName).build()).table())
             .filter(table -> (resourceID == null || getArn(table).equalsIgnoreCase(resourceID)))
             .map(table -> Pair.with(table, new DynamoDbTable(table))),
-        client.listGlobalTables().globalTables().stream()
+        listGlobalTables(client)
             .map(globalTable -> client
                 .describeGlobalTable(DescribeGlobalTableRequest.builder()
                     .globalTableName(globalTable.globalTableName()).build())
@@ -148,14 +141,26 @@ public class DynamoDbDiscovery implements IDiscovery {
 
           final Envelope envelope = new Envelope(discoveryProperties.getIntegration(),
               discoverySession, Instant.now().toString(), data);
-          String json = discoveryServices.sendToKafka(envelope, tableArn);
-          jsons.add(json);
+          byte[] json = discoveryServices.sendToKafka(envelope, tableArn);
+          session.emit(json);
         }
     );
 
     LOG.info("Finished discovery in region {}", region);
   }
 
+  /**
+   * Pages through {@code ListGlobalTables}, which has no paginator of its own, fetching each page
+   * only once the previous one is used up.
+   */
+  private static Stream<GlobalTable> listGlobalTables(DynamoDbClient client) {
+    return Stream.iterate(client.listGlobalTables(), Objects::nonNull,
+        response -> response.lastEvaluatedGlobalTableName() == null ? null
+            : client.listGlobalTables(ListGlobalTablesRequest.builder()
+                .exclusiveStartGlobalTableName(response.lastEvaluatedGlobalTableName()).build()))
+        .flatMap(response -> response.globalTables().stream());
+  }
+
   private static String getResourceType(SdkPojo inputObject) {
     String tableArn = "";
     if (inputObject instanceof GlobalTableDescription) {
@@ -11,7 +11,6 @@ import io.openraven.data.shared.ClientFunctionRunner;
 import io.openraven.producer.properties.RoleArnConfig;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
-import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.ec2.Ec2Client;
 
 @Component
@@ -23,7 +22,8 @@ public class Ec2ClientFunctionRunner extends ClientFunctionRunner<Ec2Client> {
 
 	@Override
 	public Ec2Client createClient(String region, AwsCredentialsProvider credentialsProvider) {
-		return Ec2Client.builder().credentialsProvider(credentialsProvider).region(Region.of(region)).build();
+		return configure(Ec2Client.builder(), region, credentialsProvider)
+				.build();
 	}
 
 }
@@ -12,17 +12,17 @@ import static java.lang.String.format;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.openraven.data.interfaces.AWSResource;
+import io.openraven.data.interfaces.DiscoverySession;
 import io.openraven.data.interfaces.Envelope;
 import io.openraven.data.interfaces.IDiscovery;
+import io.openraven.data.shared.PayloadBuilder;
 import io.openraven.data.shared.PayloadUtils;
 import io.openraven.producer.properties.DiscoveryProperties;
 import io.openraven.producer.services.DiscoveryServices;
-import java.io.IOException;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,7 +32,6 @@ import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
-import software.amazon.awssdk.core.exception.SdkServiceException;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.regions.RegionMetadata;
 import software.amazon.awssdk.services.ec2.Ec2Client;
@@ -64,47 +63,37 @@ public class Ec2Discovery implements IDiscovery {
 
   /**
    * Executes a discovery run for this resource type. * @param resourceID is an optional (can be
-   * null) filter to only run discovery for that resource ID * @return JSON of the discovered
-   * resource(s), used only to confirm discovery took place and gathered expected data
+   * null) filter to only run discovery for that resource ID
    */
-  public List<String> run(@Nullable String resourceID, String discoverySession) {
-    List<String> jsons = new ArrayList<>();
+  public void run(@Nullable String resourceID, DiscoverySession session) {
     final String singleDiscoveryRegion = Region.US_EAST_1.id();
-    clientProvider.applyClient(singleDiscoveryRegion,
+    clientProvider.applyClient(session, singleDiscoveryRegion,
         (client, credentialsProvider) -> {
-          discoverRegions(getAccountId(credentialsProvider, singleDiscoveryRegion), jsons,
-              discoverySession,
+          discoverRegions(session.getAccountId(credentialsProvider, singleDiscoveryRegion), session,
               singleDiscoveryRegion);
         });
-    for (String region : this.discoveryProperties.getAws()) {
-      try {
-        clientProvider.applyClient(region,
-            (client, credentialsProvider) -> {
-              doRun(resourceID, discoverySession, jsons, region, client, credentialsProvider);
-            });
-      } catch (SdkServiceException e) {
-        LOG.error(format("Failed for region %s", region), e);
-      }
-    }
-
-    return jsons;
-
+    clientProvider.applyClientAsync(session, this.discoveryProperties.getAws(),
+        (region, client, credentialsProvider) -> {
+          doRun(resourceID, session, region, client, credentialsProvider);
+        }).join();
   }
 
-  private void doRun(@Nullable String resourceID, String discoverySession, List<String> jsons,
+  private void doRun(@Nullable String resourceID, DiscoverySession session,
       String region,
       Ec2Client client, AwsCredentialsProvider credentialsProvider) {
     LOG.info("Starting discovery in region {}", region);
-    String accountId = getAccountId(credentialsProvider, region);
-    discoverEc2Instances(accountId, resourceID, discoverySession, jsons, region, client);
-    discoverVpcs(accountId, resourceID, discoverySession, jsons, region, client);
+    String accountId = session.getAccountId(credentialsProvider, region);
+    discoverEc2Instances(accountId, resourceID, session, region, client);
+    discoverVpcs(accountId, resourceID, session, region, client);
     LOG.info("Finished discovery in region {}", region);
   }
 
   private void discoverEc2Instances(String accountId, @Nullable String resourceID,
-      String discoverySession, List<String> jsons, String region, Ec2Client client) {
+      DiscoverySession session, String region, Ec2Client client) {
     LOG.info("Discovering EC2 Instances in region {}", region);
-    client.describeInstances().reservations()
+    final String discoverySession = session.getId();
+    // the paginator fetches each page as the previous one is used up
+    client.describeInstancesPaginator().reservations()
         .forEach(
             r -> r.instances().stream()
                 .filter(i -> (resourceID == null || String
@@ -121,8 +110,8 @@ public class Ec2Discovery implements IDiscovery {
                   getTags(data, i);
                   data = massage(data, i);
 
-                  String json = discoveryServices.sendToKafka(envelope, data.resourceId);
-                  jsons.add(json);
+                  byte[] json = discoveryServices.sendToKafka(envelope, data.resourceId);
+                  session.emit(json);
                 }));
     LOG.info("Finished discovering EC2 Instances in region {}", region);
   }
@@ -136,9 +125,10 @@ public class Ec2Discovery implements IDiscovery {
 
   }
 
-  private void discoverVpcs(String accountId, @Nullable String resourceID, String discoverySession,
-      List<String> jsons, String region, Ec2Client client) {
+  private void discoverVpcs(String accountId, @Nullable String resourceID,
+      DiscoverySession session, String region, Ec2Client client) {
     LOG.info("Discovering Vpcs in region {}", region);
+    final String discoverySession = session.getId();
     final DescribeVpcsResponse describeVpcsResponse = client.describeVpcs();
     describeVpcsResponse.vpcs().stream().filter(
         vpc -> (resourceID == null || format("arn:aws:ec2:%s:%s:vpc/%s", region, accountId,
@@ -157,15 +147,15 @@ public class Ec2Discovery implements IDiscovery {
           final Envelope envelope = new Envelope(
               this.discoveryProperties.getIntegration(), discoverySession,
               Instant.now().toString(), data);
-          String json = discoveryServices.sendToKafka(envelope, data.resourceId);
-          jsons.add(json);
+          byte[] json = discoveryServices.sendToKafka(envelope, data.resourceId);
+          session.emit(json);
         }
     );
     LOG.info("Finished discovering Vpcs in region {}", region);
   }
 
-  private void discoverRegions(String accountId, List<String> jsons, String discoverySession,
-      String regionName) {
+  private void discoverRegions(String accountId, DiscoverySession session, String regionName) {
+    final String discoverySession = session.getId();
     LOG.info("Discovering Regions in region {}", regionName);
     LOG.info("Finished discovering Regions in region {}", regionName);
     List<Region> copy = new ArrayList<>(Region.regions());
@@ -186,8 +176,8 @@ public class Ec2Discovery implements IDiscovery {
       final Envelope envelope = new Envelope(
           this.discoveryProperties.getIntegration(), discoverySession,
           Instant.now().toString(), data);
-      String json = discoveryServices.sendToKafka(envelope, data.resourceId);
-      jsons.add(json);
+      byte[] json = discoveryServices.sendToKafka(envelope, data.resourceId);
+      session.emit(json);
     });
   }
 
@@ -202,20 +192,13 @@ public class Ec2Discovery implements IDiscovery {
   }
 
   public EC2Instance massage(EC2Instance ec2Instance, Instance instance) {
-    try {
-      var instanceForUpdate = objectMapper.readerForUpdating(ec2Instance.configuration);
-
-      ec2Instance.configuration = instanceForUpdate.readValue(objectMapper.convertValue(
-          Map.of("instanceType", instance.instanceTypeAsString()), JsonNode.class));
-
-      if(!StringUtils.isEmpty(instance.publicIpAddress())) {
-        ec2Instance.configuration = instanceForUpdate.readValue(objectMapper.convertValue(
-            Map.of("publicIp", instance.publicIpAddress()), JsonNode.class));
-      }
+    final PayloadBuilder configuration = new PayloadBuilder(ec2Instance.configuration)
+        .add("instanceType", instance.instanceTypeAsString());
 
-    } catch (IOException e) {
-      LOG.warn("Error updating {} data object: {}", ec2Instance.resourceId, e.getMessage());
+    if(!StringUtils.isEmpty(instance.publicIpAddress())) {
+      configuration.add("publicIp", instance.publicIpAddress());
     }
+    ec2Instance.configuration = configuration.build();
 
     return ec2Instance;
   }
@@ -9,14 +9,13 @@ package io.openraven.data.ess;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.openraven.data.interfaces.DiscoverySession;
 import io.openraven.data.interfaces.Envelope;
 import io.openraven.data.interfaces.IDiscovery;
 import io.openraven.data.shared.PayloadUtils;
 import io.openraven.producer.properties.DiscoveryProperties;
 import io.openraven.producer.services.DiscoveryServices;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,7 +24,6 @@ import org.springframework.context.annotation.Profile;
 import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
-import software.amazon.awssdk.core.exception.SdkServiceException;
 import software.amazon.awssdk.services.elasticsearch.ElasticsearchClient;
 import software.amazon.awssdk.services.elasticsearch.model.DescribeElasticsearchDomainRequest;
 import software.amazon.awssdk.services.elasticsearch.model.ElasticsearchDomainStatus;
@@ -55,27 +53,18 @@ public class EssDiscovery implements IDiscovery {
   }
 
   @Override
-  public List<String> run(String resourceID, String discoverySession) {
-    List<String> jsons = new ArrayList<>();
-
-    for (String region : discoveryProperties.getAws()) {
-      try {
-        clientProvider.applyClient(region,
-            (client, credentialsProvider) -> doRun(resourceID, discoverySession,
-                jsons, region, client, credentialsProvider));
-      } catch (SdkServiceException e) {
-        LOG.error(String.format("Failed for region %s", region), e);
-      }
-    }
-
-    return jsons;
+  public void run(String resourceID, DiscoverySession session) {
+    clientProvider.applyClientAsync(session, discoveryProperties.getAws(),
+        (region, client, credentialsProvider) -> doRun(resourceID, session,
+            region, client, credentialsProvider)).join();
   }
 
-  private void doRun(@Nullable String resourceID, String discoverySession, List<String> jsons,
+  private void doRun(@Nullable String resourceID, DiscoverySession session,
       String region,
       ElasticsearchClient client, AwsCredentialsProvider credentialsProvider) {
     LOG.info("Starting discovery in region {}", region);
-    String accountId = getAccountId(credentialsProvider, region);
+    final String discoverySession = session.getId();
+    String accountId = session.getAccountId(credentialsProvider, region);
 
     client.listDomainNames().domainNames().forEach(domainInfo -> {
       ElasticsearchDomainStatus domainStatus = client
@@ -94,8 +83,8 @@ public class EssDiscovery implements IDiscovery {
       final Envelope envelope = new Envelope(discoveryProperties.getIntegration(),
           discoverySession,
           Instant.now().toString(), data);
-      String json = discoveryServices.sendToKafka(envelope, data.resourceId);
-      jsons.add(json);
+      byte[] json = discoveryServices.sendToKafka(envelope, data.resourceId);
+      session.emit(json);
 
     });
 
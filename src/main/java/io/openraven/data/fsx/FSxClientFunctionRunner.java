@@ -11,7 +11,6 @@ import io.openraven.data.shared.ClientFunctionRunner;
 import io.openraven.producer.properties.RoleArnConfig;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
-import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.fsx.FSxClient;
 
 @Component
@@ -23,7 +22,8 @@ public class FSxClientFunctionRunner extends ClientFunctionRunner<FSxClient> {
 
 	@Override
 	public FSxClient createClient(String region, AwsCredentialsProvider credentialsProvider) {
-		return FSxClient.builder().credentialsProvider(credentialsProvider).region(Region.of(region)).build();
+		return configure(FSxClient.builder(), region, credentialsProvider)
+				.build();
 	}
 
 }
@@ -0,0 +1,108 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.data.interfaces;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How far a {@link DiscoverySession} has got, updated by the discoveries as they go, and whether
+ * it has been asked to stop.
+ */
+public class DiscoveryProgress {
+
+  private static final int MAX_RECENT_ERRORS = 20;
+
+  private final AtomicInteger servicesTotal = new AtomicInteger();
+
+  private final AtomicInteger servicesDone = new AtomicInteger();
+
+  private final AtomicInteger regionAccountsDone = new AtomicInteger();
+
+  private final AtomicLong resourcesEmitted = new AtomicLong();
+
+  private final AtomicInteger errors = new AtomicInteger();
+
+  private final Deque<String> recentErrors = new ArrayDeque<>();
+
+  private volatile boolean cancelled;
+
+  void setServicesTotal(int servicesTotal) {
+    this.servicesTotal.set(servicesTotal);
+  }
+
+  void serviceDone() {
+    servicesDone.incrementAndGet();
+  }
+
+  void resourceEmitted() {
+    resourcesEmitted.incrementAndGet();
+  }
+
+  /**
+   * Records that one (region, credentials) pair of a discovery has been run through.
+   */
+  public void regionAccountDone() {
+    regionAccountsDone.incrementAndGet();
+  }
+
+  /**
+   * Counts an error, keeping the last {@value #MAX_RECENT_ERRORS} messages.
+   */
+  public void error(String message) {
+    errors.incrementAndGet();
+    synchronized (recentErrors) {
+      if (recentErrors.size() == MAX_RECENT_ERRORS) {
+        recentErrors.removeFirst();
+      }
+      recentErrors.addLast(message);
+    }
+  }
+
+  /**
+   * Asks the session to stop: discoveries and (region, credentials) pairs which haven't started
+   * are skipped, and running ones stop at the next resource they emit.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  public int getServicesTotal() {
+    return servicesTotal.get();
+  }
+
+  public int getServicesDone() {
+    return servicesDone.get();
+  }
+
+  public int getRegionAccountsDone() {
+    return regionAccountsDone.get();
+  }
+
+  public long getResourcesEmitted() {
+    return resourcesEmitted.get();
+  }
+
+  public int getErrors() {
+    return errors.get();
+  }
+
+  public List<String> getRecentErrors() {
+    synchronized (recentErrors) {
+      return List.copyOf(recentErrors);
+    }
+  }
+
+}
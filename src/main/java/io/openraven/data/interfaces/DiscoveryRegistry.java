@@ -10,17 +10,30 @@ package io.openraven.data.interfaces;
 import static java.lang.String.format;
 
 import com.google.common.collect.ImmutableMap;
+import io.openraven.data.shared.AssumeRoleCredentialsCache;
+import io.openraven.data.shared.CloudwatchMetricCache;
+import io.openraven.data.shared.DiscoveryExecutors;
+import io.openraven.data.shared.SdkClientRegistry;
 import io.openraven.producer.properties.AnalyticsProperties;
+import io.openraven.producer.properties.ExecutionProperties;
 import io.openraven.producer.services.DiscoveryServices;
 import io.sentry.Sentry;
 import io.sentry.event.BreadcrumbBuilder;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Collection;
-import java.util.List;
+import java.util.Deque;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -32,68 +45,236 @@ public class DiscoveryRegistry {
 
   private final DiscoveryServices discoveryServices;
 
+  private final ExecutionProperties executionProperties;
+
+  private final ExecutorService serviceExecutor;
+
+  private final AssumeRoleCredentialsCache credentialsCache;
+
+  private final CloudwatchMetricCache metricCache;
+
   private final String clusterId;
 
+  private final SdkClientRegistry clientRegistry;
+
+  private final Map<String, ServiceQueue> serviceQueues = new ConcurrentHashMap<>();
+
   @Autowired
   public DiscoveryRegistry(Collection<IDiscovery> discoveries, DiscoveryServices discoveryServices,
-      AnalyticsProperties serviceProps) {
+      AnalyticsProperties serviceProps, ExecutionProperties executionProperties,
+      DiscoveryExecutors discoveryExecutors, AssumeRoleCredentialsCache credentialsCache,
+      CloudwatchMetricCache metricCache, SdkClientRegistry clientRegistry) {
 
     this.discoveries = discoveries;
     this.discoveryServices = discoveryServices;
+    this.executionProperties = executionProperties;
+    this.serviceExecutor = discoveryExecutors.getServiceExecutor();
+    this.credentialsCache = credentialsCache;
+    this.metricCache = metricCache;
     this.clusterId = serviceProps.getClusterId();
+    this.clientRegistry = clientRegistry;
+  }
+
+  public void discover() {
+    this.discover(null);
+  }
+
+  public void discover(@Nullable String resourceID) {
+    this.discover(resourceID, json -> {
+    });
+  }
+
+  /**
+   * Runs every registered discovery side by side on the service executor and waits for all of
+   * them, so a session takes about as long as its slowest discovery.
+   *
+   * @param output receives the JSON of every resource as soon as it has been sent, from the
+   *               discoveries' threads; nothing is collected in between
+   */
+  public void discover(@Nullable String resourceID, Consumer<byte[]> output) {
+    discoverAsync(newSession(output), resourceID).join();
+  }
+
+  /**
+   * A new session, under a random id, for {@link #discoverAsync}.
+   */
+  public DiscoverySession newSession(Consumer<byte[]> output) {
+    return new DiscoverySession(UUID.randomUUID().toString(), clientRegistry, output);
+  }
+
+  /**
+   * Starts every registered discovery for {@code session} on the service executor without waiting
+   * for them. The session's {@link DiscoveryProgress} follows them as they run, and cancelling it
+   * stops them early.
+   *
+   * @return completes once every discovery has finished or stopped and Kafka has acknowledged
+   * everything they sent; failures of single discoveries or sends are recorded in the progress
+   * rather than failing it
+   */
+  public CompletableFuture<Void> discoverAsync(DiscoverySession session,
+      @Nullable String resourceID) {
+
+    final String discoverySession = session.getId();
+    final DiscoveryProgress progress = session.getProgress();
+    progress.setServicesTotal(discoveries.size());
+    LOG.info("Starting discovery session {} with {} discoveries", discoverySession,
+        discoveries.size());
+
+    discoveryServices.openSession(discoverySession,
+        failedResourceID -> progress.error(format("Unable to send %s to Kafka", failedResourceID)));
+
+    final CompletableFuture<Void> discovered = startDiscoveries(session, resourceID);
+
+    // the session only ends once Kafka has acknowledged, or failed, everything it sent
+    return discovered.handle((result, e) -> null)
+        .thenCompose(finished -> discoveryServices.closeSession(discoverySession))
+        .thenCompose(acknowledged -> discovered)
+        .whenComplete((result, e) -> {
+          LOG.info("Ending discovery session {} with {} resources and {} errors{}",
+              discoverySession, progress.getResourcesEmitted(), progress.getErrors(),
+              progress.isCancelled() ? ", cancelled" : "");
+          metricCache.logStats();
+        });
   }
 
-  public String discover() {
-    return this.discover(null);
+  /**
+   * Queues every discovery of the session. A failure to even start them, e.g. a rejected
+   * executor, fails the future rather than being thrown, so that the session is still closed.
+   */
+  private CompletableFuture<Void> startDiscoveries(DiscoverySession session,
+      @Nullable String resourceID) {
+    try {
+      // assume every role up front, rather than once per discovery and region as they first need it
+      return credentialsCache.prefetch()
+          .thenCompose(prefetched -> CompletableFuture.allOf(discoveries.stream()
+              .map(discovery -> serviceQueue(discovery.getAnalyticsName())
+                  .submit(() -> runDiscovery(discovery, resourceID, session.forDiscovery())))
+              .toArray(CompletableFuture[]::new)));
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
   }
 
-  public String discover(String resourceID) {
+  private void runDiscovery(IDiscovery discovery, @Nullable String resourceID,
+      DiscoverySession session) {
+    final String discoverySession = session.getId();
+    final String serviceName = discovery.getAnalyticsName();
+    final DiscoveryProgress progress = session.getProgress();
+    if (progress.isCancelled()) {
+      LOG.info("Skipping {} in cancelled session {}", serviceName, discoverySession);
+      progress.serviceDone();
+      return;
+    }
+
+    try {
+      Sentry.getContext()
+          .recordBreadcrumb(
+              new BreadcrumbBuilder().setMessage("Discovery session " + discoverySession).build());
+
+      // send event on discovery session started to Segment for analytics
+      var startPropertyMap = ImmutableMap
+          .of("discovery-session", discoverySession, "clusterID", clusterId);
+      discoveryServices.sendAnalyticsEvent(format("%s-start", serviceName), startPropertyMap);
 
-    String discoverySession = UUID.randomUUID().toString();
-    Sentry.getContext()
-        .recordBreadcrumb(
-            new BreadcrumbBuilder().setMessage("Discovery session " + discoverySession).build());
+      LOG.info("Starting {} in session {}", serviceName, discoverySession);
 
-    List<String> outputs = new ArrayList<>();
-    for (IDiscovery discovery : this.discoveries) {
-      try {
-        final String serviceName = discovery.getAnalyticsName();
+      Sentry.getContext()
+          .recordBreadcrumb(new BreadcrumbBuilder().setMessage("In " + serviceName).build());
 
-        // send event on discovery session started to Segment for analytics
-        var startPropertyMap = ImmutableMap
-            .of("discovery-session", discoverySession, "clusterID", clusterId);
-        discoveryServices.sendAnalyticsEvent(format("%s-start", serviceName), startPropertyMap);
+      // run discovery, which emits its output as it goes
+      discovery.run(resourceID, session);
 
-        LOG.info("Starting {} in session {}", serviceName, discoverySession);
+      // send event on how many resources were discovered to Segment for
+      // analytics
+      var completePropertyMap = ImmutableMap.of("discovery-session", discoverySession,
+          "clusterID", clusterId, "num-resources", Long.toString(session.getEmitted()));
+      discoveryServices
+          .sendAnalyticsEvent(format("%s-complete", serviceName), completePropertyMap);
 
-        Sentry.getContext()
-            .recordBreadcrumb(new BreadcrumbBuilder().setMessage("In " + serviceName).build());
+      LOG.info("Ending {} and session {}", serviceName, discoverySession);
+
+    } catch (CancellationException ex) {
+      LOG.info("Stopped {} in session {}: {}", serviceName, discoverySession, ex.getMessage());
+    } catch (Exception ex) {
+      LOG.error(
+          "Error calling through discovery registry - there should be nested exceptions detailing the issue",
+          ex);
+      progress.error(format("%s failed: %s", serviceName, ex.getMessage()));
+      Sentry.capture(ex);
+    } finally {
+      Sentry.getContext().clearBreadcrumbs();
+      progress.serviceDone();
+    }
+  }
+
+  private ServiceQueue serviceQueue(String serviceName) {
+    return serviceQueues.computeIfAbsent(serviceName,
+        name -> new ServiceQueue(executionProperties.getServiceConcurrency(name), serviceExecutor));
+  }
 
-        // run discovery and capture output
-        outputs.addAll(discovery.run(resourceID, discoverySession));
+  /**
+   * Limits how many runs of one discovery are on the service executor at once. Runs over the
+   * limit wait in this queue, rather than on a pool thread, so they never hold up the runs of
+   * other discoveries which still have room.
+   */
+  private static class ServiceQueue {
 
-        // send event on how many resources were discovered to Segment for
-        // analytics
-        var completePropertyMap = ImmutableMap.of("discovery-session", discoverySession,
-            "clusterID", clusterId, "num-resources", Integer.toString(outputs.size()));
-        discoveryServices
-            .sendAnalyticsEvent(format("%s-complete", serviceName), completePropertyMap);
+    private final int limit;
 
-        LOG.info("Ending {} and session {}", serviceName, discoverySession);
+    private final Executor executor;
 
-      } catch (Exception ex) {
-        LOG.error(
-            "Error calling through discovery registry - there should be nested exceptions detailing the issue",
-            ex);
-        Sentry.capture(ex);
-      } finally {
-        // ensure that everything is sent to Kafka before exiting
-        discoveryServices.flushKafka();
+    private final Deque<Runnable> waiting = new ArrayDeque<>();
+
+    private int running;
+
+    ServiceQueue(int limit, Executor executor) {
+      this.limit = limit;
+      this.executor = executor;
+    }
+
+    /**
+     * Runs {@code task} on the executor as soon as fewer than {@code limit} runs are under way.
+     */
+    CompletableFuture<Void> submit(Runnable task) {
+      final CompletableFuture<Void> result = new CompletableFuture<>();
+      final Runnable start = () -> CompletableFuture.runAsync(task, executor)
+          .whenComplete((done, e) -> {
+            finished();
+            if (e == null) {
+              result.complete(null);
+            } else {
+              result.completeExceptionally(e);
+            }
+          });
+      final boolean startNow;
+      synchronized (this) {
+        startNow = running < limit;
+        if (startNow) {
+          running++;
+        } else {
+          waiting.add(start);
+        }
+      }
+      if (startNow) {
+        start.run();
+      }
+      return result;
+    }
+
+    private void finished() {
+      final Runnable next;
+      synchronized (this) {
+        next = waiting.poll();
+        if (next == null) {
+          running--;
+        }
+      }
+      // the finished run's slot goes straight to the next one
+      if (next != null) {
+        next.run();
       }
     }
 
-    Sentry.getContext().clearBreadcrumbs();
-    return String.join("\n\n", outputs);
   }
 
 }
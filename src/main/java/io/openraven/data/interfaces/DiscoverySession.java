@@ -0,0 +1,144 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.data.interfaces;
+
+import io.openraven.data.shared.SdkClientRegistry;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sts.StsClient;
+
+/**
+ * State shared by every {@link IDiscovery} taking part in one discovery session.
+ */
+public class DiscoverySession {
+
+  private final String id;
+
+  /**
+   * Account ids keyed by the access key id of the credentials they were resolved for, since the
+   * same credentials show up under a new provider for every region and discovery. The first
+   * caller for a key resolves it, outside the map, while later ones wait on its future.
+   */
+  private final Map<String, CompletableFuture<String>> accountIds;
+
+  private final SdkClientRegistry clientRegistry;
+
+  private final Consumer<byte[]> output;
+
+  private final DiscoveryProgress progress;
+
+  private final AtomicLong emitted = new AtomicLong();
+
+  public DiscoverySession(String id, SdkClientRegistry clientRegistry) {
+    this(id, clientRegistry, json -> {
+    });
+  }
+
+  /**
+   * @param clientRegistry where the STS clients resolving account ids come from
+   * @param output         receives the UTF-8 JSON of every resource as it is emitted, possibly
+   *                       from several threads at once
+   */
+  public DiscoverySession(String id, SdkClientRegistry clientRegistry, Consumer<byte[]> output) {
+    this(id, new ConcurrentHashMap<>(), clientRegistry, output, new DiscoveryProgress());
+  }
+
+  private DiscoverySession(String id, Map<String, CompletableFuture<String>> accountIds,
+      SdkClientRegistry clientRegistry, Consumer<byte[]> output, DiscoveryProgress progress) {
+    this.id = id;
+    this.accountIds = accountIds;
+    this.clientRegistry = clientRegistry;
+    this.output = output;
+    this.progress = progress;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * Returns a view of this session for one discovery: it shares everything with this session but
+   * also counts its own {@link #getEmitted() emitted} resources.
+   */
+  public DiscoverySession forDiscovery() {
+    return new DiscoverySession(id, accountIds, clientRegistry, output, progress);
+  }
+
+  /**
+   * The progress of the whole session, shared by every view of it.
+   */
+  public DiscoveryProgress getProgress() {
+    return progress;
+  }
+
+  /**
+   * Hands the UTF-8 JSON of a discovered resource, as sent to Kafka, to the session's output.
+   *
+   * @throws CancellationException once the session has been cancelled, to stop the discovery
+   */
+  public void emit(byte[] json) {
+    emitted.incrementAndGet();
+    progress.resourceEmitted();
+    output.accept(json);
+    if (progress.isCancelled()) {
+      throw new CancellationException("Discovery session " + id + " was cancelled");
+    }
+  }
+
+  /**
+   * The number of resources emitted through this view of the session; see {@link
+   * DiscoveryProgress#getResourcesEmitted()} for the whole session.
+   */
+  public long getEmitted() {
+    return emitted.get();
+  }
+
+  /**
+   * Returns the account {@code awsCredentialsProvider} belongs to, asking STS for the caller
+   * identity only the first time those credentials are seen in this session; {@link
+   * io.openraven.data.shared.ClientFunctionRunner} looks them all up before it fans out. A caller
+   * which finds the lookup still under way asks STS itself rather than wait on it, since both may
+   * be tasks of the same pool. A failed lookup isn't cached, so the next caller tries again.
+   */
+  public String getAccountId(AwsCredentialsProvider awsCredentialsProvider, String region) {
+    final String accessKeyId = awsCredentialsProvider.resolveCredentials().accessKeyId();
+    final CompletableFuture<String> resolving = new CompletableFuture<>();
+    final CompletableFuture<String> existing = accountIds.putIfAbsent(accessKeyId, resolving);
+    if (existing != null) {
+      return existing.isDone() && !existing.isCompletedExceptionally() ? existing.join()
+          : callerAccount(awsCredentialsProvider, region);
+    }
+
+    try {
+      final String accountId = callerAccount(awsCredentialsProvider, region);
+      resolving.complete(accountId);
+      return accountId;
+    } catch (RuntimeException e) {
+      accountIds.remove(accessKeyId, resolving);
+      resolving.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  private String callerAccount(AwsCredentialsProvider awsCredentialsProvider, String region) {
+    final StsClient stsClient = clientRegistry.getClient(StsClient.class.getName(), region,
+        awsCredentialsProvider, () -> StsClient.builder()
+            .httpClient(clientRegistry.getHttpClient())
+            .credentialsProvider(awsCredentialsProvider)
+            .region(Region.of(region))
+            .build());
+    return stsClient.getCallerIdentity().account();
+  }
+
+}
@@ -0,0 +1,40 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.data.interfaces;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The wire format of the {@link Envelope}s published into Kafka. Every record names the codec it
+ * was written with in its {@value #HEADER} header, so the consumer reads it back the same way.
+ */
+public interface EnvelopeCodec {
+
+  String HEADER = "envelope-codec";
+
+  /**
+   * The name of this codec, as configured and as found in the {@value #HEADER} header.
+   */
+  String getName();
+
+  /**
+   * Whether the encoded envelopes are UTF-8 JSON, as opposed to a binary format.
+   */
+  boolean isJson();
+
+  byte[] encode(Envelope envelope) throws IOException;
+
+  /**
+   * Writes the encoded envelope to {@code out}, which is left open.
+   */
+  void encode(Envelope envelope, OutputStream out) throws IOException;
+
+  Envelope decode(byte[] data) throws IOException;
+
+}
@@ -7,27 +7,20 @@
  */
 package io.openraven.data.interfaces;
 
-import java.util.List;
-import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.sts.StsClient;
-import software.amazon.awssdk.services.sts.model.GetCallerIdentityResponse;
+import org.springframework.lang.Nullable;
 
 public interface IDiscovery {
 
-  List<String> run(String resourceID, String discoverySession);
-
-  default String getAccountId(AwsCredentialsProvider awsCredentialsProvider, String region) {
-    try (StsClient stsClient = StsClient.builder().credentialsProvider(awsCredentialsProvider)
-        .region(
-            Region.of(region))
-        .build();) {
-
-      GetCallerIdentityResponse response = stsClient.getCallerIdentity();
-
-      return response.account();
-    }
-  }
+  /**
+   * Executes a discovery run for this resource type, handing the JSON of each discovered resource
+   * to {@link DiscoverySession#emit(byte[])} as soon as it has been sent, rather than collecting
+   * them.
+   *
+   * @param resourceID is an optional (can be null) filter to only run discovery for that resource
+   *                   ID
+   * @param session    the session this run takes part in, shared with the other discoveries
+   */
+  void run(@Nullable String resourceID, DiscoverySession session);
 
   default String getAnalyticsName() {
     return getClass().getSimpleName();
@@ -11,7 +11,6 @@ import io.openraven.data.shared.ClientFunctionRunner;
 import io.openraven.producer.properties.RoleArnConfig;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
-import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.rds.RdsClient;
 
 @Component
@@ -23,7 +22,8 @@ public class RdsClientFunctionRunner extends ClientFunctionRunner<RdsClient> {
 
 	@Override
 	protected RdsClient createClient(String region, AwsCredentialsProvider credentialsProvider) {
-		return RdsClient.builder().credentialsProvider(credentialsProvider).region(Region.of(region)).build();
+		return configure(RdsClient.builder(), region, credentialsProvider)
+				.build();
 	}
 
 }
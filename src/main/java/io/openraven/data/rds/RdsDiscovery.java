@@ -9,8 +9,10 @@ package io.openraven.data.rds;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.openraven.data.interfaces.DiscoverySession;
 import io.openraven.data.interfaces.Envelope;
 import io.openraven.data.interfaces.IDiscovery;
+import io.openraven.data.shared.CloudwatchMetricBatch;
 import io.openraven.data.shared.PayloadUtils;
 import io.openraven.data.shared.Utils;
 import io.openraven.producer.properties.DiscoveryProperties;
@@ -22,7 +24,6 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import org.javatuples.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -30,9 +31,7 @@ import org.springframework.context.annotation.Profile;
 import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
-import software.amazon.awssdk.core.exception.SdkServiceException;
 import software.amazon.awssdk.services.cloudwatch.model.Dimension;
-import software.amazon.awssdk.services.cloudwatch.model.GetMetricStatisticsResponse;
 import software.amazon.awssdk.services.rds.RdsClient;
 import software.amazon.awssdk.services.rds.model.DBInstance;
 import software.amazon.awssdk.services.rds.model.DescribeDbClustersRequest;
@@ -67,49 +66,57 @@ public class RdsDiscovery implements IDiscovery {
 
   /**
    * Executes a discovery run for this resource type. * @param resourceID is an optional (can be
-   * null) filter to only run discovery for that resource ID * @return JSON of the discovered
-   * resource(s), used only to confirm discovery took place and gathered expected data
+   * null) filter to only run discovery for that resource ID
    */
-  public List<String> run(@Nullable String resourceID, String discoverySession) {
-    List<String> jsons = new ArrayList<>();
-
-    for (String region : this.discoveryProperties.getAws()) {
-      try {
-        clientProvider.applyClient(region,
-            (client, credentialsProvider) -> doRun(resourceID, discoverySession,
-                jsons, region, client, credentialsProvider));
-      } catch (SdkServiceException e) {
-        LOG.error(String.format("Failed for region %s", region), e);
-      }
-    }
-
-    return jsons;
-
+  public void run(@Nullable String resourceID, DiscoverySession session) {
+    clientProvider.applyClientAsync(session, this.discoveryProperties.getAws(),
+        (region, client, credentialsProvider) -> doRun(resourceID, session,
+            region, client, credentialsProvider)).join();
   }
 
-  private void doRun(@Nullable String resourceID, String discoverySession, List<String> jsons,
+  private void doRun(@Nullable String resourceID, DiscoverySession session,
       String region,
       RdsClient client, AwsCredentialsProvider credentialsProvider) {
     LOG.info("Starting discovery in region {}", region);
-    String accountId = getAccountId(credentialsProvider, region);
-    Stream.concat(client.describeDBInstances().dbInstances().stream(),
-        client.describeReservedDBInstances().reservedDBInstances().stream()
-            .map(rdb -> getDBInstanceFromReservedDBInstance(client, rdb)).filter(Objects::nonNull))
+    String accountId = session.getAccountId(credentialsProvider, region);
+    final CloudwatchMetricBatch metrics = Utils.newMetricBatch(accountId, region,
+        credentialsProvider);
+    // each page is discovered and sent before the next one is fetched
+    client.describeDBInstancesPaginator().forEach(page -> discoverPage(resourceID, accountId,
+        session, region, client, metrics, page.dbInstances().stream()));
+    client.describeReservedDBInstancesPaginator().forEach(page -> discoverPage(resourceID,
+        accountId, session, region, client, metrics,
+        page.reservedDBInstances().stream()
+            .map(rdb -> getDBInstanceFromReservedDBInstance(client, rdb))
+            .filter(Objects::nonNull)));
+
+    LOG.info("Finished discovery in region {}", region);
+  }
+
+  private void discoverPage(@Nullable String resourceID, String accountId,
+      DiscoverySession session, String region, RdsClient client,
+      CloudwatchMetricBatch metrics, Stream<DBInstance> page) {
+    final String discoverySession = session.getId();
+    final List<RDSInstance> instances = page
         .filter(db -> (resourceID == null || db.dbInstanceArn().equalsIgnoreCase(resourceID)))
-        .forEach(db -> {
+        .map(db -> {
           RDSInstance data = new RDSInstance(region, db);
           data.discoverySessionId = discoverySession;
           data.awsAccountId = accountId;
 
-          discover(client, db, data, credentialsProvider);
-          final Envelope envelope = new Envelope(
-              this.discoveryProperties.getIntegration(),
-              discoverySession, Instant.now().toString(), data);
-          String json = discoveryServices.sendToKafka(envelope, data.resourceId);
-          jsons.add(json);
-        });
-
-    LOG.info("Finished discovery in region {}", region);
+          discover(client, db, data, metrics);
+          return data;
+        })
+        .collect(Collectors.toList());
+
+    metrics.fetch();
+    instances.forEach(data -> {
+      final Envelope envelope = new Envelope(
+          this.discoveryProperties.getIntegration(),
+          discoverySession, Instant.now().toString(), data);
+      byte[] json = discoveryServices.sendToKafka(envelope, data.resourceId);
+      session.emit(json);
+    });
   }
 
   @Nullable
@@ -124,16 +131,17 @@ public class RdsDiscovery implements IDiscovery {
   }
 
   public void discover(RdsClient client, DBInstance resource, final RDSInstance data,
-      AwsCredentialsProvider awsCredentialsProvider) {
+      CloudwatchMetricBatch metrics) {
     LOG.info("Getting DBSize for {}", resource.dbInstanceArn());
 
     List<Dimension> dimensions = new ArrayList<>();
     dimensions.add(
         Dimension.builder().name("DBInstanceIdentifier").value(resource.dbInstanceIdentifier())
             .build());
-    Pair<Long, GetMetricStatisticsResponse> freeStorageSpace = Utils
-        .getCloudwatchMetricMinimum(data.awsRegion, "AWS/RDS", "FreeStorageSpace",
-            dimensions, awsCredentialsProvider);
+    metrics.requestMinimum("AWS/RDS", "FreeStorageSpace", dimensions,
+        freeStorageSpace -> data.supplementaryConfiguration = PayloadUtils
+            .update(data.supplementaryConfiguration, Map.of("size", Map.of("FreeStorageSpace",
+                (long) freeStorageSpace))));
 
     DescribeDbClustersResponse describeDbClustersResponse = client.describeDBClusters(
         DescribeDbClustersRequest.builder().dbClusterIdentifier(resource.dbClusterIdentifier())
@@ -144,9 +152,6 @@ public class RdsDiscovery implements IDiscovery {
         ListTagsForResourceRequest.builder().resourceName(resource.dbInstanceArn()).build());
     getTags(data, listTagsForResourceResponse);
 
-    data.supplementaryConfiguration = PayloadUtils
-        .update(data.supplementaryConfiguration, Map.of("size",Map.of("FreeStorageSpace",
-            freeStorageSpace.getValue0())));
     data.supplementaryConfiguration = PayloadUtils
         .update(data.supplementaryConfiguration, describeDbClustersResponse);
   }
@@ -11,7 +11,6 @@ import io.openraven.data.shared.ClientFunctionRunner;
 import io.openraven.producer.properties.RoleArnConfig;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
-import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.redshift.RedshiftClient;
 
 @Component
@@ -23,7 +22,8 @@ public class RedshiftClientProvider extends ClientFunctionRunner<RedshiftClient>
 
 	@Override
 	protected RedshiftClient createClient(String region, AwsCredentialsProvider credentialsProvider) {
-		return RedshiftClient.builder().credentialsProvider(credentialsProvider).region(Region.of(region)).build();
+		return configure(RedshiftClient.builder(), region, credentialsProvider)
+				.build();
 	}
 
 }
@@ -7,8 +7,10 @@
  */
 package io.openraven.data.redshift;
 
+import io.openraven.data.interfaces.DiscoverySession;
 import io.openraven.data.interfaces.Envelope;
 import io.openraven.data.interfaces.IDiscovery;
+import io.openraven.data.shared.CloudwatchMetricBatch;
 import io.openraven.data.shared.PayloadUtils;
 import io.openraven.data.shared.Utils;
 import io.openraven.producer.properties.DiscoveryProperties;
@@ -17,7 +19,7 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import org.javatuples.Pair;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -25,9 +27,7 @@ import org.springframework.context.annotation.Profile;
 import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
-import software.amazon.awssdk.core.exception.SdkServiceException;
 import software.amazon.awssdk.services.cloudwatch.model.Dimension;
-import software.amazon.awssdk.services.cloudwatch.model.GetMetricStatisticsResponse;
 import software.amazon.awssdk.services.redshift.RedshiftClient;
 import software.amazon.awssdk.services.redshift.model.Cluster;
 import software.amazon.awssdk.services.redshift.model.DescribeStorageResponse;
@@ -53,62 +53,63 @@ public class RedshiftDiscovery implements IDiscovery {
   }
 
   @Override
-  public List<String> run(String resourceID, String discoverySession) {
-    List<String> jsons = new ArrayList<>();
-
-    for (String region : discoveryProperties.getAws()) {
-      try {
-        clientProvider.applyClient(region,
-            (client, credentialsProvider) -> doRun(resourceID, discoverySession,
-                jsons, region, client, credentialsProvider));
-      } catch (SdkServiceException e) {
-        LOG.error(String.format("Failed for region %s", region), e);
-      }
-    }
-
-    return jsons;
+  public void run(String resourceID, DiscoverySession session) {
+    clientProvider.applyClientAsync(session, discoveryProperties.getAws(),
+        (region, client, credentialsProvider) -> doRun(resourceID, session,
+            region, client, credentialsProvider)).join();
   }
 
-  private void doRun(@Nullable String resourceID, String discoverySession, List<String> jsons,
+  private void doRun(@Nullable String resourceID, DiscoverySession session,
       String region,
       RedshiftClient client, AwsCredentialsProvider credentialsProvider) {
     LOG.info("Starting discovery in region {}", region);
-
-    client.describeClusters().clusters().stream()
-        .filter(cluster -> (resourceID == null || String
-            .format("arn:aws:redshift:%s:%s:cluster:%s", region,
-                getAccountId(credentialsProvider, region), cluster.clusterIdentifier())
-            .equalsIgnoreCase(resourceID)))
-        .forEach(cluster -> {
-          RedshiftCluster data = new RedshiftCluster(region, cluster,
-              getAccountId(credentialsProvider, region));
-          data.discoverySessionId = discoverySession;
-
-          discover(client, cluster, data, credentialsProvider);
-          final Envelope envelope = new Envelope(
-              discoveryProperties.getIntegration(),
-              discoverySession, Instant.now().toString(), data);
-          String json = discoveryServices.sendToKafka(envelope, data.resourceId);
-          jsons.add(json);
-        });
+    final String discoverySession = session.getId();
+    final String accountId = session.getAccountId(credentialsProvider, region);
+
+    final CloudwatchMetricBatch metrics = Utils.newMetricBatch(accountId, region,
+        credentialsProvider);
+    // each page is discovered and sent before the next one is fetched
+    client.describeClustersPaginator().forEach(page -> {
+      final List<RedshiftCluster> clusters = page.clusters().stream()
+          .filter(cluster -> (resourceID == null || String
+              .format("arn:aws:redshift:%s:%s:cluster:%s", region,
+                  accountId, cluster.clusterIdentifier())
+              .equalsIgnoreCase(resourceID)))
+          .map(cluster -> {
+            RedshiftCluster data = new RedshiftCluster(region, cluster, accountId);
+            data.discoverySessionId = discoverySession;
+
+            discover(client, cluster, data, metrics);
+            return data;
+          })
+          .collect(Collectors.toList());
+
+      metrics.fetch();
+      clusters.forEach(data -> {
+        final Envelope envelope = new Envelope(
+            discoveryProperties.getIntegration(),
+            discoverySession, Instant.now().toString(), data);
+        byte[] json = discoveryServices.sendToKafka(envelope, data.resourceId);
+        session.emit(json);
+      });
+    });
 
     LOG.info("Finished discovery in region {}", region);
   }
 
   public void discover(RedshiftClient client, Cluster resource, RedshiftCluster data,
-      AwsCredentialsProvider awsCredentialsProvider) {
+      CloudwatchMetricBatch metrics) {
     DescribeStorageResponse describeStorageResponse = client.describeStorage();
 
     List<Dimension> dimensions = new ArrayList<>();
     dimensions.add(
         Dimension.builder().name("ClusterIdentifier").value(resource.clusterIdentifier())
             .build());
-    Pair<Double, GetMetricStatisticsResponse> percentageDiskSpaceUsed = Utils
-        .getCloudwatchDoubleMetricMinimum(data.awsRegion, "AWS/Redshift",
-            "PercentageDiskSpaceUsed", dimensions, awsCredentialsProvider);
+    metrics.requestMinimum("AWS/Redshift", "PercentageDiskSpaceUsed", dimensions,
+        percentageDiskSpaceUsed -> data.supplementaryConfiguration = PayloadUtils
+            .update(data.supplementaryConfiguration,
+                Map.of("PercentageDiskSpaceUsed", percentageDiskSpaceUsed)));
 
-    data.supplementaryConfiguration = PayloadUtils.update(data.supplementaryConfiguration,
-        Map.of("PercentageDiskSpaceUsed", percentageDiskSpaceUsed.getValue0()));
     data.supplementaryConfiguration = PayloadUtils
         .update(data.supplementaryConfiguration, describeStorageResponse);
   }
@@ -0,0 +1,184 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.data.s3;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.openraven.data.interfaces.DiscoverySession;
+import io.openraven.data.shared.PayloadUtils;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.Bucket;
+import software.amazon.awssdk.services.s3.model.GetBucketAclRequest;
+import software.amazon.awssdk.services.s3.model.GetBucketEncryptionRequest;
+import software.amazon.awssdk.services.s3.model.GetBucketLoggingRequest;
+import software.amazon.awssdk.services.s3.model.GetBucketMetricsConfigurationRequest;
+import software.amazon.awssdk.services.s3.model.GetBucketReplicationRequest;
+import software.amazon.awssdk.services.s3.model.GetBucketTaggingRequest;
+import software.amazon.awssdk.services.s3.model.GetBucketWebsiteRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectLockConfigurationRequest;
+import software.amazon.awssdk.services.s3.model.GetPublicAccessBlockRequest;
+import software.amazon.awssdk.services.s3.model.Tag;
+
+/**
+ * Collects the same per bucket facets as {@link S3Discovery#discover} and {@code discoverMe}, but
+ * issues every facet call of a bucket at once through the async client and merges each response
+ * into the {@link S3Bucket} as it completes. A facet that fails is logged and left out, instead of
+ * failing the bucket. Sizes are left to the run's metric batch, like the sync path.
+ */
+class S3AsyncFacetCollector {
+
+  private static final Logger LOG = LoggerFactory.getLogger(S3AsyncFacetCollector.class);
+
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final S3AsyncClient s3Client;
+
+  private final Semaphore inFlight;
+
+  private final DiscoverySession session;
+
+  /**
+   * @param inFlight the permits bounding the outstanding requests, one permit per request; shared
+   *                 by every collector so the bound holds across regions and accounts
+   * @param session  the session the buckets are discovered in, which stops issuing calls once it
+   *                 is cancelled
+   */
+  S3AsyncFacetCollector(S3AsyncClient s3Client, Semaphore inFlight, DiscoverySession session) {
+    this.s3Client = s3Client;
+    this.inFlight = inFlight;
+    this.session = session;
+  }
+
+  /**
+   * Starts every facet call for {@code resource}, blocking only while the in-flight bound is
+   * reached.
+   *
+   * @return a future completing with {@code data} once every facet has been merged or has failed
+   * @throws CancellationException if the session is cancelled, or the thread interrupted, before
+   *                               every call has been issued
+   */
+  CompletableFuture<S3Bucket> collect(Bucket resource, S3Bucket data) {
+    final String bucketName = resource.name();
+
+    final List<CompletableFuture<Void>> facets = List.of(
+        facet(data, "ObjectLock", () -> s3Client.getObjectLockConfiguration(
+            GetObjectLockConfigurationRequest.builder().bucket(bucketName).build()),
+            (d, response) -> d.supplementaryConfiguration = PayloadUtils
+                .update(d.supplementaryConfiguration, Map.of("BucketObjectLockConfiguration",
+                    response.objectLockConfiguration()))),
+        facet(data, "Tagging", () -> s3Client.getBucketTagging(
+            GetBucketTaggingRequest.builder().bucket(bucketName).build()),
+            (d, response) -> {
+              d.supplementaryConfiguration = PayloadUtils
+                  .update(d.supplementaryConfiguration, response);
+              JsonNode tagsNode = objectMapper.convertValue(response.tagSet().stream()
+                  .collect(Collectors.toMap(Tag::key, Tag::value)), JsonNode.class);
+              d.tags = PayloadUtils.update(d.tags, tagsNode);
+            }),
+        facet(data, "Replication", () -> s3Client.getBucketReplication(
+            GetBucketReplicationRequest.builder().bucket(bucketName).build()),
+            (d, response) -> d.supplementaryConfiguration = PayloadUtils
+                .update(d.supplementaryConfiguration, Map.of("BucketReplicationConfiguration",
+                    response.replicationConfiguration()))),
+        facet(data, "ACLS", () -> s3Client.getBucketAcl(
+            GetBucketAclRequest.builder().bucket(bucketName).build()),
+            (d, response) -> d.supplementaryConfiguration = PayloadUtils
+                .update(d.supplementaryConfiguration, Map.of("BucketACLConfiguration", response))),
+        facet(data, "Encryption", () -> s3Client.getBucketEncryption(
+            GetBucketEncryptionRequest.builder().bucket(bucketName).build()),
+            (d, response) -> d.supplementaryConfiguration = PayloadUtils
+                .update(d.supplementaryConfiguration,
+                    Map.of("ServerSideEncryptionConfiguration", response))),
+        facet(data, "Hosting", () -> s3Client.getBucketWebsite(
+            GetBucketWebsiteRequest.builder().bucket(bucketName).build()),
+            (d, response) -> d.supplementaryConfiguration = PayloadUtils
+                .update(d.supplementaryConfiguration,
+                    Map.of("BucketWebsiteConfiguration", response))),
+        facet(data, "Logging", () -> s3Client.getBucketLogging(
+            GetBucketLoggingRequest.builder().bucket(bucketName).build()),
+            (d, response) -> d.supplementaryConfiguration = PayloadUtils
+                .update(d.supplementaryConfiguration,
+                    Map.of("BucketLoggingConfiguration", response))),
+        facet(data, "Metrics", () -> s3Client.getBucketMetricsConfiguration(
+            GetBucketMetricsConfigurationRequest.builder().bucket(bucketName).build()),
+            (d, response) -> d.supplementaryConfiguration = PayloadUtils
+                .update(d.supplementaryConfiguration, response)),
+        facet(data, "PublicAccess", () -> s3Client.getPublicAccessBlock(
+            GetPublicAccessBlockRequest.builder().bucket(bucketName).build()),
+            (d, response) -> d.supplementaryConfiguration = PayloadUtils
+                .update(d.supplementaryConfiguration, Map.of("PublicAccessBlockConfiguration",
+                    response.publicAccessBlockConfiguration())))
+    );
+
+    return CompletableFuture.allOf(facets.toArray(new CompletableFuture[0]))
+        .thenApply(ignored -> data);
+  }
+
+  private <T> CompletableFuture<Void> facet(S3Bucket data, String facetName,
+      Supplier<CompletableFuture<T>> call, BiConsumer<S3Bucket, T> merge) {
+    if (session.getProgress().isCancelled()) {
+      throw new CancellationException("Discovery session " + session.getId() + " was cancelled");
+    }
+    try {
+      inFlight.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CancellationException(
+          "Interrupted collecting the facets of " + data.resourceName + " bucket");
+    }
+    final CompletableFuture<T> response;
+    try {
+      response = call.get();
+    } catch (RuntimeException e) {
+      inFlight.release();
+      LOG.warn("{} bucket is missing {}, with error {}", data.resourceName, facetName,
+          e.getMessage());
+      return CompletableFuture.completedFuture(null);
+    }
+
+    return response.handle((result, error) -> {
+      inFlight.release();
+      if (error != null) {
+        final Throwable cause =
+            error instanceof CompletionException && error.getCause() != null ? error.getCause()
+                : error;
+        if (cause instanceof SdkServiceException
+            && ((SdkServiceException) cause).statusCode() == 404) {
+          LOG.debug("{} bucket has no {}", data.resourceName, facetName);
+        } else {
+          LOG.warn("{} bucket is missing {}, with error {}", data.resourceName, facetName,
+              cause.getMessage());
+        }
+        return null;
+      }
+      try {
+        // responses complete on the SDK's threads, so merges into the same bucket are serialized
+        synchronized (data) {
+          merge.accept(data, result);
+        }
+      } catch (RuntimeException e) {
+        LOG.warn("Unable to add {} to {} bucket, with error {}", facetName, data.resourceName,
+            e.getMessage());
+      }
+      return null;
+    });
+  }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.data.s3;
+
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.mapping;
+import static java.util.stream.Collectors.toList;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import org.javatuples.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.Bucket;
+import software.amazon.awssdk.services.s3.model.GetBucketLocationRequest;
+
+/**
+ * The buckets of each account grouped by the region they live in, built once per account and
+ * discovery session. {@code ListBuckets} is global to an account, so rather than every regional
+ * run listing all buckets and probing each one's location, each account's buckets are listed and
+ * located once, before the regional runs start, and every regional run takes just the buckets of
+ * its own region.
+ */
+class S3BucketIndex {
+
+  private static final Logger LOG = LoggerFactory.getLogger(S3BucketIndex.class);
+
+  private final Executor locationExecutor;
+
+  private final Map<String, CompletableFuture<Map<String, List<Bucket>>>> accounts =
+      new ConcurrentHashMap<>();
+
+  /**
+   * @param locationExecutor where the locations of an account's buckets are resolved, in
+   *                         parallel; {@link #index} waits on it, so it must not be called from
+   *                         that executor
+   */
+  S3BucketIndex(Executor locationExecutor) {
+    this.locationExecutor = locationExecutor;
+  }
+
+  /**
+   * Lists and locates the buckets of {@code accountId}, unless that has been done already. A
+   * failure is kept, to be thrown to every regional run of the account by {@link #getBuckets}.
+   *
+   * @param client a {@code us-east-1} client of {@code accountId}
+   */
+  void index(String accountId, S3Client client) {
+    if (accounts.containsKey(accountId)) {
+      return;
+    }
+    CompletableFuture<Map<String, List<Bucket>>> result;
+    try {
+      result = CompletableFuture.completedFuture(locateAll(accountId, client));
+    } catch (RuntimeException e) {
+      result = CompletableFuture.failedFuture(e);
+    }
+    accounts.put(accountId, result);
+  }
+
+  /**
+   * @return the buckets of {@code accountId} located in {@code region}, without waiting
+   * @throws IllegalStateException if the account hasn't been indexed, or whatever indexing it
+   *                               failed with
+   */
+  List<Bucket> getBuckets(String accountId, String region) {
+    final CompletableFuture<Map<String, List<Bucket>>> index = accounts.get(accountId);
+    if (index == null) {
+      throw new IllegalStateException("The buckets of account " + accountId + " weren't indexed");
+    }
+    try {
+      return index.join().getOrDefault(region, List.of());
+    } catch (CompletionException e) {
+      throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+    }
+  }
+
+  private Map<String, List<Bucket>> locateAll(String accountId, S3Client client) {
+    final List<Bucket> buckets = client.listBuckets().buckets();
+    LOG.info("Locating {} buckets of account {}", buckets.size(), accountId);
+    final List<CompletableFuture<Pair<String, Bucket>>> located = buckets.stream()
+        .map(bucket -> CompletableFuture
+            .supplyAsync(() -> Pair.with(locate(client, bucket), bucket), locationExecutor))
+        .collect(toList());
+    return located.stream()
+        .map(CompletableFuture::join)
+        .filter(pair -> pair.getValue0() != null)
+        .collect(groupingBy(Pair::getValue0, mapping(Pair::getValue1, toList())));
+  }
+
+  @Nullable
+  private String locate(S3Client client, Bucket bucket) {
+    try {
+      return normalize(client
+          .getBucketLocation(GetBucketLocationRequest.builder().bucket(bucket.name()).build())
+          .locationConstraintAsString());
+    } catch (SdkException ex) {
+      LOG.warn("Unable to locate bucket {}, with error {}", bucket.name(), ex.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Maps a {@code LocationConstraint} to its region id: buckets in {@code us-east-1} report no
+   * constraint, and the oldest {@code eu-west-1} buckets still report {@code EU}.
+   */
+  static String normalize(@Nullable String locationConstraint) {
+    if (locationConstraint == null || locationConstraint.isEmpty()) {
+      return Region.US_EAST_1.id();
+    }
+    if (locationConstraint.equalsIgnoreCase("EU")) {
+      return Region.EU_WEST_1.id();
+    }
+    return locationConstraint;
+  }
+
+}
@@ -11,7 +11,7 @@ import io.openraven.data.shared.ClientFunctionRunner;
 import io.openraven.producer.properties.RoleArnConfig;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
-import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
 import software.amazon.awssdk.services.s3.S3Client;
 
 @Component
@@ -23,7 +23,17 @@ public class S3ClientFunctionRunner extends ClientFunctionRunner<S3Client> {
 
 	@Override
 	protected S3Client createClient(String region, AwsCredentialsProvider credentialsProvider) {
-		return S3Client.builder().credentialsProvider(credentialsProvider).region(Region.of(region)).build();
+		return configure(S3Client.builder(), region, credentialsProvider)
+				.build();
+	}
+
+	/**
+	 * The override configuration of the S3 clients of this region and credentials, for the async
+	 * clients {@link S3Discovery} builds itself, so that their calls take from the same rate limit.
+	 */
+	ClientOverrideConfiguration getAsyncOverrideConfiguration(String region,
+			AwsCredentialsProvider credentialsProvider) {
+		return getOverrideConfiguration(region, credentialsProvider);
 	}
 
 }
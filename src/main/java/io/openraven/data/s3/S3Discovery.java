@@ -9,8 +9,12 @@ package io.openraven.data.s3;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import io.openraven.data.interfaces.DiscoverySession;
 import io.openraven.data.interfaces.Envelope;
 import io.openraven.data.interfaces.IDiscovery;
+import io.openraven.data.shared.CloudwatchMetricBatch;
+import io.openraven.data.shared.DiscoveryExecutors;
 import io.openraven.data.shared.PayloadUtils;
 import io.openraven.data.shared.Utils;
 import io.openraven.producer.properties.DiscoveryProperties;
@@ -19,10 +23,14 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
 import java.util.stream.Collectors;
-import org.javatuples.Pair;
+import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Profile;
 import org.springframework.lang.Nullable;
@@ -30,15 +38,17 @@ import org.springframework.stereotype.Component;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.cloudwatch.model.Dimension;
-import software.amazon.awssdk.services.cloudwatch.model.GetMetricStatisticsResponse;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.Bucket;
 import software.amazon.awssdk.services.s3.model.GetBucketAclRequest;
 import software.amazon.awssdk.services.s3.model.GetBucketAclResponse;
 import software.amazon.awssdk.services.s3.model.GetBucketEncryptionRequest;
 import software.amazon.awssdk.services.s3.model.GetBucketEncryptionResponse;
-import software.amazon.awssdk.services.s3.model.GetBucketLocationRequest;
 import software.amazon.awssdk.services.s3.model.GetBucketLoggingRequest;
 import software.amazon.awssdk.services.s3.model.GetBucketLoggingResponse;
 import software.amazon.awssdk.services.s3.model.GetBucketMetricsConfigurationRequest;
@@ -53,12 +63,11 @@ import software.amazon.awssdk.services.s3.model.GetObjectLockConfigurationReques
 import software.amazon.awssdk.services.s3.model.GetObjectLockConfigurationResponse;
 import software.amazon.awssdk.services.s3.model.GetPublicAccessBlockRequest;
 import software.amazon.awssdk.services.s3.model.GetPublicAccessBlockResponse;
-import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.s3.model.Tag;
 
 @Profile("S3")
 @Component
-public class S3Discovery implements IDiscovery {
+public class S3Discovery implements IDiscovery, DisposableBean {
 
   private final S3ClientFunctionRunner clientProvider;
 
@@ -66,34 +75,48 @@ public class S3Discovery implements IDiscovery {
 
   private final DiscoveryProperties discoveryProperties;
 
+  // where bucket locations are resolved, while the service thread waits
+  private final Executor clientExecutor;
+
+  /**
+   * Shared by every async client of this discovery, or {@code null} unless {@code s3.async} is
+   * configured.
+   */
+  @Nullable
+  private final SdkAsyncHttpClient asyncHttpClient;
+
+  private final Semaphore asyncInFlight;
+
   private static final Logger LOG = LoggerFactory.getLogger(S3Discovery.class);
 
+  /**
+   * How many buckets are held at once; their two size metrics each fill one {@code GetMetricData}
+   * call.
+   */
+  private static final int BUCKETS_PER_SLICE = 250;
+
   private static final ObjectMapper objectMapper = new ObjectMapper();
 
   @Autowired
   S3Discovery(DiscoveryServices discoveryServices, DiscoveryProperties discoveryProps,
-      S3ClientFunctionRunner clientProvider) {
+      S3ClientFunctionRunner clientProvider, DiscoveryExecutors discoveryExecutors) {
     this.discoveryServices = discoveryServices;
     this.clientProvider = clientProvider;
     this.discoveryProperties = discoveryProps;
+    this.clientExecutor = discoveryExecutors.getClientExecutor();
+
+    final DiscoveryProperties.S3 s3Props = discoveryProps.getS3();
+    final int maxInFlight = Math.max(1, s3Props.getMaxInFlight());
+    this.asyncInFlight = new Semaphore(maxInFlight);
+    this.asyncHttpClient = s3Props.getAsync()
+        ? NettyNioAsyncHttpClient.builder().maxConcurrency(maxInFlight).build()
+        : null;
   }
 
-  private boolean isInRegion(String region, S3Client client, Bucket resource) {
-    try {
-      String bucketRegion = client
-          .getBucketLocation(GetBucketLocationRequest.builder().bucket(resource.name()).build())
-          .locationConstraintAsString();
-      return bucketRegion.equalsIgnoreCase(region);
-
-    } catch (S3Exception ex) {
-      if (ex.statusCode() >= 300 && ex.statusCode() < 500) {
-        // if exception, then the client is for a different region than
-        // the resource was in.
-        LOG.debug("Cross-region request for resource={}, {}", resource.name(), ex.getMessage());
-        return false;
-      } else {
-        throw ex;
-      }
+  @Override
+  public void destroy() {
+    if (asyncHttpClient != null) {
+      asyncHttpClient.close();
     }
   }
 
@@ -102,61 +125,131 @@ public class S3Discovery implements IDiscovery {
    *
    * @param resourceID is an optional (can be null) filter to only run discovery for that resource
    *                   ID
-   * @return JSON of the discovered resource(s), used only to confirm discovery took place and
-   * gathered expected data
    */
-  public List<String> run(@Nullable String resourceID, String discoverySession) {
-    List<String> jsons = new ArrayList<>();
+  public void run(@Nullable String resourceID, DiscoverySession session) {
+    final S3BucketIndex bucketIndex = indexBuckets(session);
+
+    clientProvider.applyClientAsync(session, this.discoveryProperties.getAws(),
+        (region, client, credentialsProvider) -> doRun(resourceID, session,
+            region, client, credentialsProvider, bucketIndex)).join();
+  }
 
-    for (String region : this.discoveryProperties.getAws()) {
+  /**
+   * Lists and locates the buckets of every account on this, the service's, thread before the
+   * regional runs start, so that they only read the index. An account which can't be indexed is
+   * left for its regional runs to fail on.
+   */
+  private S3BucketIndex indexBuckets(DiscoverySession session) {
+    final S3BucketIndex result = new S3BucketIndex(clientExecutor);
+    final String region = Region.US_EAST_1.id();
+    for (AwsCredentialsProvider credentialsProvider : clientProvider.getCredentialsProviders()) {
+      if (session.getProgress().isCancelled()) {
+        break;
+      }
       try {
-        clientProvider.applyClient(region, (s3Client, credentialsProvider) -> doRun(resourceID,
-            discoverySession, jsons, region, s3Client, credentialsProvider));
-      } catch (SdkServiceException e) {
-        LOG.error(String.format("Failed for region %s", region), e);
+        result.index(session.getAccountId(credentialsProvider, region),
+            clientProvider.getClient(region, credentialsProvider));
+      } catch (RuntimeException e) {
+        LOG.warn("Unable to index the buckets of an account: {}", e.getMessage());
       }
     }
-
-    return jsons;
-
+    return result;
   }
 
-  private void doRun(@Nullable String resourceID, String discoverySession, List<String> jsons,
+  private void doRun(@Nullable String resourceID, DiscoverySession session,
       String region,
-      S3Client client, AwsCredentialsProvider credentialsProvider) {
+      S3Client client, AwsCredentialsProvider credentialsProvider, S3BucketIndex bucketIndex) {
     LOG.info("Starting discovery in region {}", region);
-    String accountId = getAccountId(credentialsProvider, region);
-    client.listBuckets().buckets().stream().filter(
-        b -> (isInRegion(region, client, b) && (resourceID == null || b.name()
-            .equalsIgnoreCase(resourceID))))
-        .forEach(b -> {
-          S3Bucket data = new S3Bucket(b);
-          data.awsRegion = region;
-          data.awsAccountId = accountId;
-          data.discoverySessionId = discoverySession;
+    final String discoverySession = session.getId();
+    String accountId = session.getAccountId(credentialsProvider, region);
+    final List<Bucket> buckets = bucketIndex
+        .getBuckets(accountId, region)
+        .stream()
+        .filter(b -> (resourceID == null || b.name().equalsIgnoreCase(resourceID)))
+        .collect(Collectors.toList());
+
+    final CloudwatchMetricBatch metrics = Utils.newMetricBatch(accountId, region,
+        credentialsProvider);
+    // each slice is discovered and sent before the next one is started
+    for (List<Bucket> slice : Lists.partition(buckets, BUCKETS_PER_SLICE)) {
+      final List<S3Bucket> discovered;
+      if (asyncHttpClient != null) {
+        discovered = discoverAsync(slice.stream(), accountId, session, region,
+            credentialsProvider, metrics);
+      } else {
+        discovered = slice.stream().map(b -> {
+          S3Bucket data = newS3Bucket(b, accountId, discoverySession, region);
 
           discover(client, b, data);
-          discoverMe(client, b, data, credentialsProvider);
+          discoverMe(client, b, data, metrics);
+          return data;
+        }).collect(Collectors.toList());
+      }
 
-          final Envelope envelope = new Envelope(
-              this.discoveryProperties.getIntegration(),
-              discoverySession, Instant.now().toString(), data);
-          String json = discoveryServices.sendToKafka(envelope, data.resourceId);
-          jsons.add(json);
-        });
+      metrics.fetch();
+      discovered.forEach(data -> emit(session, data));
+    }
 
     LOG.info("Finished discovery in region {}", region);
   }
 
+  /**
+   * Collects the facets of the given buckets through {@link S3AsyncFacetCollector}, issuing the
+   * calls of all of them up front (bounded by {@code s3.max-in-flight}), and queues their sizes on
+   * {@code metrics}.
+   *
+   * @return the buckets in listing order, once all of their facets are in
+   */
+  private List<S3Bucket> discoverAsync(Stream<Bucket> buckets, String accountId,
+      DiscoverySession session, String region, AwsCredentialsProvider credentialsProvider,
+      CloudwatchMetricBatch metrics) {
+    try (S3AsyncClient s3AsyncClient = S3AsyncClient.builder()
+        .httpClient(asyncHttpClient)
+        .overrideConfiguration(
+            clientProvider.getAsyncOverrideConfiguration(region, credentialsProvider))
+        .credentialsProvider(credentialsProvider)
+        .region(Region.of(region))
+        .build()) {
+      final S3AsyncFacetCollector collector = new S3AsyncFacetCollector(s3AsyncClient,
+          asyncInFlight, session);
+
+      final List<CompletableFuture<S3Bucket>> pending = buckets
+          .map(b -> {
+            S3Bucket data = newS3Bucket(b, accountId, session.getId(), region);
+            discoverSize(b, data, metrics);
+            return collector.collect(b, data);
+          })
+          .collect(Collectors.toList());
+      return pending.stream().map(CompletableFuture::join).collect(Collectors.toList());
+    }
+  }
+
+  private static S3Bucket newS3Bucket(Bucket bucket, String accountId, String discoverySession,
+      String region) {
+    S3Bucket data = new S3Bucket(bucket);
+    data.awsRegion = region;
+    data.awsAccountId = accountId;
+    data.discoverySessionId = discoverySession;
+    return data;
+  }
+
+  private void emit(DiscoverySession session, S3Bucket data) {
+    final Envelope envelope = new Envelope(
+        this.discoveryProperties.getIntegration(),
+        session.getId(), Instant.now().toString(), data);
+    byte[] json = discoveryServices.sendToKafka(envelope, data.resourceId);
+    session.emit(json);
+  }
+
   private void discoverMe(S3Client client, Bucket resource, S3Bucket data,
-      AwsCredentialsProvider awsCredentialsProvider) {
+      CloudwatchMetricBatch metrics) {
     discoveryACLS(client, resource, data);
     discoverEncryption(client, resource, data);
     discoverHosting(client, resource, data);
     discoverLogging(client, resource, data);
     discoverMetrics(client, resource, data);
     discoverPublicAccess(client, resource, data);
-    discoverSize(resource, data, awsCredentialsProvider);
+    discoverSize(resource, data, metrics);
   }
 
   private void discoveryACLS(S3Client client, Bucket resource, S3Bucket data) {
@@ -248,28 +341,28 @@ public class S3Discovery implements IDiscovery {
     }
   }
 
-  private void discoverSize(Bucket resource, S3Bucket data,
-      AwsCredentialsProvider awsCredentialsProvider) {
+  /**
+   * Queues the size metrics of {@code resource} on {@code metrics}; each is merged into {@code
+   * data} under {@code size} once the batch is fetched.
+   */
+  private void discoverSize(Bucket resource, S3Bucket data, CloudwatchMetricBatch metrics) {
     LOG.info("Getting size for bucket {}", resource.name());
 
     List<Dimension> dimensions = new ArrayList<>();
     dimensions.add(Dimension.builder().name("BucketName").value(resource.name()).build());
     dimensions.add(Dimension.builder().name("StorageType").value("StandardStorage").build());
-    Pair<Long, GetMetricStatisticsResponse> bucketSizeBytes1 = Utils
-        .getCloudwatchMetricMinimum(data.awsRegion, "AWS/S3", "BucketSizeBytes",
-            dimensions, awsCredentialsProvider);
+    metrics.requestMinimum("AWS/S3", "BucketSizeBytes", dimensions,
+        bucketSizeBytes -> data.supplementaryConfiguration = PayloadUtils
+            .update(data.supplementaryConfiguration, Map.of("size",
+                Map.of("BucketSizeBytes", (long) bucketSizeBytes))));
 
     List<Dimension> dimensions2 = new ArrayList<>();
     dimensions2.add(Dimension.builder().name("BucketName").value(resource.name()).build());
     dimensions2.add(Dimension.builder().name("StorageType").value("AllStorageTypes").build());
-    Pair<Long, GetMetricStatisticsResponse> numberOfObjects = Utils
-        .getCloudwatchMetricMinimum(data.awsRegion, "AWS/S3", "NumberOfObjects",
-            dimensions2, awsCredentialsProvider);
-
-    data.supplementaryConfiguration = PayloadUtils
-        .update(data.supplementaryConfiguration, Map.of("size",
-            Map.of("BucketSizeBytes", bucketSizeBytes1.getValue0(),
-                "NumberOfObjects", numberOfObjects.getValue0())));
+    metrics.requestMinimum("AWS/S3", "NumberOfObjects", dimensions2,
+        numberOfObjects -> data.supplementaryConfiguration = PayloadUtils
+            .update(data.supplementaryConfiguration, Map.of("size",
+                Map.of("NumberOfObjects", (long) numberOfObjects))));
   }
 
   public void discover(S3Client client, Bucket resource, S3Bucket data) {
@@ -0,0 +1,81 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.data.shared;
+
+import io.openraven.producer.properties.ExecutionProperties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket whose fill rate follows AIMD: it is multiplied down whenever a call is throttled,
+ * and grows back by {@code additive-increase} calls per second for every second of successful
+ * calls. The bucket holds at most one second's worth of tokens, so bursts stay within the rate.
+ */
+class AdaptiveTokenBucket {
+
+  private final double minRate;
+
+  private final double maxRate;
+
+  private final double additiveIncrease;
+
+  private final double multiplicativeDecrease;
+
+  private double rate;
+
+  private double tokens;
+
+  private long refilledAt;
+
+  AdaptiveTokenBucket(ExecutionProperties.RateLimit rateLimit) {
+    this.minRate = Math.max(0.1, rateLimit.getMinRate());
+    this.maxRate = Math.max(minRate, rateLimit.getMaxRate());
+    this.additiveIncrease = rateLimit.getAdditiveIncrease();
+    this.multiplicativeDecrease = rateLimit.getMultiplicativeDecrease();
+    this.rate = Math.min(maxRate, Math.max(minRate, rateLimit.getInitialRate()));
+    this.tokens = 1;
+    this.refilledAt = System.nanoTime();
+  }
+
+  /**
+   * Takes a token, waiting until one is available.
+   */
+  void acquire() throws InterruptedException {
+    long waitNanos;
+    synchronized (this) {
+      refill();
+      tokens -= 1;
+      // the token is taken now, and the caller waits out the debt outside the lock
+      waitNanos = tokens >= 0 ? 0 : (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+    }
+    if (waitNanos > 0) {
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+  }
+
+  synchronized void onSuccess() {
+    refill();
+    rate = Math.min(maxRate, rate + additiveIncrease / rate);
+  }
+
+  synchronized void onThrottle() {
+    refill();
+    rate = Math.max(minRate, rate * multiplicativeDecrease);
+  }
+
+  synchronized double getRate() {
+    return rate;
+  }
+
+  private void refill() {
+    final long now = System.nanoTime();
+    tokens = Math.min(Math.max(1, rate),
+        tokens + (now - refilledAt) * rate / TimeUnit.SECONDS.toNanos(1));
+    refilledAt = now;
+  }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.data.shared;
+
+import static org.springframework.util.CollectionUtils.isEmpty;
+
+import io.openraven.producer.properties.RoleArnConfig;
+import io.sentry.Sentry;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sts.StsClient;
+import software.amazon.awssdk.services.sts.StsClientBuilder;
+import software.amazon.awssdk.services.sts.auth.StsAssumeRoleCredentialsProvider;
+import software.amazon.awssdk.services.sts.model.AssumeRoleRequest;
+
+/**
+ * One assume-role credentials provider per role ARN, shared by every discovery, region and
+ * session. Each provider keeps its role session and, once it is within the SDK's prefetch time
+ * of expiring, has the next caller renew it while everyone else keeps using the current one, so
+ * discoveries only all block on STS the first time a role is used. Renewal isn't done in the
+ * background, which would take a thread per role ARN for the life of the process.
+ */
+@Component
+public class AssumeRoleCredentialsCache implements DisposableBean {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AssumeRoleCredentialsCache.class);
+
+  private final RoleArnConfig roleArnConfig;
+
+  private final StsClient stsClient;
+
+  private final ExecutorService clientExecutor;
+
+  private final Map<String, StsAssumeRoleCredentialsProvider> providers =
+      new ConcurrentHashMap<>();
+
+  public AssumeRoleCredentialsCache(RoleArnConfig roleArnConfig, SdkClientRegistry clientRegistry,
+      DiscoveryExecutors discoveryExecutors) {
+    this.roleArnConfig = roleArnConfig;
+    this.clientExecutor = discoveryExecutors.getClientExecutor();
+
+    final StsClientBuilder stsClientBuilder = StsClient.builder()
+        .httpClient(clientRegistry.getHttpClient());
+    if (!StringUtils.isEmpty(roleArnConfig.getStsRegion())) {
+      stsClientBuilder.region(Region.of(roleArnConfig.getStsRegion()));
+    }
+    this.stsClient = stsClientBuilder.build();
+  }
+
+  /**
+   * Returns the shared provider for {@code roleArn}; it must not be closed by the caller.
+   */
+  public AwsCredentialsProvider getProvider(String roleArn) {
+    return providers.computeIfAbsent(roleArn, arn -> StsAssumeRoleCredentialsProvider.builder()
+        .stsClient(stsClient)
+        .asyncCredentialUpdateEnabled(false)
+        .refreshRequest(
+            AssumeRoleRequest.builder()
+                .roleArn(arn)
+                .roleSessionName(UUID.randomUUID().toString())
+                .build()
+        ).build());
+  }
+
+  /**
+   * Assumes every configured role in parallel, unless prefetching is disabled. A role which
+   * can't be assumed is logged and captured, and left for the discoveries to fail on.
+   *
+   * @return a handle which completes once every role has been tried
+   */
+  public CompletableFuture<Void> prefetch() {
+    final List<String> roleArns = roleArnConfig.getRoleArns();
+    if (!roleArnConfig.getPrefetch() || isEmpty(roleArns)) {
+      return CompletableFuture.completedFuture(null);
+    }
+    LOG.debug("Prefetching credentials for Role ARNs: {}", roleArns);
+    return CompletableFuture.allOf(roleArns.stream()
+        .map(roleArn -> CompletableFuture.runAsync(() -> {
+          try {
+            getProvider(roleArn).resolveCredentials();
+          } catch (Exception e) {
+            LOG.error("Unable to assume Role ARN \"{}\"", roleArn, e);
+            Sentry.capture(e);
+          }
+        }, clientExecutor))
+        .toArray(CompletableFuture[]::new));
+  }
+
+  @Override
+  public void destroy() {
+    providers.values().forEach(StsAssumeRoleCredentialsProvider::close);
+    stsClient.close();
+  }
+
+}
@@ -7,51 +7,78 @@
  */
 package io.openraven.data.shared;
 
+import static java.lang.String.format;
 import static org.springframework.util.CollectionUtils.isEmpty;
 
+import io.openraven.data.interfaces.DiscoveryProgress;
+import io.openraven.data.interfaces.DiscoverySession;
 import io.openraven.producer.properties.RoleArnConfig;
 import io.sentry.Sentry;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.function.BiConsumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.awscore.client.builder.AwsClientBuilder;
 import software.amazon.awssdk.core.SdkClient;
+import software.amazon.awssdk.core.client.builder.SdkSyncClientBuilder;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.http.SdkHttpClient;
 import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.sts.StsClient;
-import software.amazon.awssdk.services.sts.auth.StsAssumeRoleCredentialsProvider;
-import software.amazon.awssdk.services.sts.model.AssumeRoleRequest;
 
 public abstract class ClientFunctionRunner<CLIENT extends SdkClient> {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ClientFunctionRunner.class);
   protected final RoleArnConfig roleArnConfig;
-  private final StsClient stsClient;
+  // We should rely on the same credential provider we use for non cross account
+  // discovery, DefaultCredentialsProvider
+  private final AwsCredentialsProvider localProvider = DefaultCredentialsProvider.create();
+  private ExecutorService clientExecutor;
+  private SdkClientRegistry clientRegistry;
+  private AssumeRoleCredentialsCache credentialsCache;
+  private RateGovernor rateGovernor;
 
   public ClientFunctionRunner(RoleArnConfig roleArnConfig) {
     this.roleArnConfig = roleArnConfig;
-    stsClient = StsClient.create();
+  }
+
+  @Autowired
+  public void setDiscoveryExecutors(DiscoveryExecutors discoveryExecutors) {
+    this.clientExecutor = discoveryExecutors.getClientExecutor();
+  }
+
+  @Autowired
+  public void setClientRegistry(SdkClientRegistry clientRegistry) {
+    this.clientRegistry = clientRegistry;
+  }
+
+  @Autowired
+  public void setCredentialsCache(AssumeRoleCredentialsCache credentialsCache) {
+    this.credentialsCache = credentialsCache;
+  }
+
+  @Autowired
+  public void setRateGovernor(RateGovernor rateGovernor) {
+    this.rateGovernor = rateGovernor;
   }
 
   /**
+   * @param session  the session the pairs are run for, whose progress they are recorded in and
+   *                 which stops them when cancelled
    * @param region   the {@link Region} compatible string which will be used to create a {@code
    *                 client} instance
-   * @param consumer the code to run with the created {@code client}, which will be invoked {@code
-   *                 length(roleArns)+1} times, and you don't have to close the client instance
-   *                 because I will do that
+   * @param consumer the code to run with the pooled {@code client}, which will be invoked {@code
+   *                 length(roleArns)+1} times, and which you must not close
    */
-  public void applyClient(String region, BiConsumer<CLIENT, AwsCredentialsProvider> consumer) {
-    // We should rely on the same credential provider we use for non cross account
-    // discovery, DefaultCredentialsProvider
-    try (final var provider = DefaultCredentialsProvider.create();
-        final CLIENT client = createClient(region, provider)) {
-      consumer.accept(client, provider);
-    } catch (Exception e) {
-      LOGGER.error("Unable to run \"local\" discovery in Region {}", region, e);
-      Sentry.capture(e);
-    }
+  public void applyClient(DiscoverySession session, String region,
+      BiConsumer<CLIENT, AwsCredentialsProvider> consumer) {
+    applyLocalClient(session, region, consumer);
 
     final List<String> roleArns = roleArnConfig.getRoleArns();
     // don't bother creating the StsClient if there's nothing to do with it
@@ -61,29 +88,169 @@ public abstract class ClientFunctionRunner<CLIENT extends SdkClient> {
     }
     LOGGER.debug("Applying client in Region {} to Role ARNs: {}", region, roleArns);
     for (String roleArn : roleArns) {
-      try (final var provider = StsAssumeRoleCredentialsProvider.builder()
-          .stsClient(stsClient)
-          .refreshRequest(
-              AssumeRoleRequest.builder()
-                  .roleArn(roleArn)
-                  .roleSessionName(UUID.randomUUID().toString())
-                  .build()
-          ).build();
-          final CLIENT client = createClient(region, provider)
-      ) {
-        // We need the pass along the credential provider for one off client creation
-        // in the same role_arn during cross account discovery
-
-        consumer.accept(client, provider);
-      } catch (Exception e) {
-        LOGGER.error("Unable to apply client in Region {} to Role ARN \"{}\"", region, roleArn, e);
-        Sentry.capture(e);
+      applyRoleClient(session, region, roleArn, consumer);
+    }
+  }
+
+  /**
+   * The parallel form of {@link #applyClient(DiscoverySession, String, BiConsumer)}: every
+   * (region, credentials) pair is scheduled as its own task on the shared client pool, and a
+   * failure in one pair is logged and captured without affecting the others.
+   *
+   * @param regions  the {@link Region} compatible strings to fan out over
+   * @param consumer the code to run with the created {@code client}, which will be invoked {@code
+   *                 length(regions)*(length(roleArns)+1)} times, possibly concurrently
+   * @return a handle which completes once every pair has been run
+   */
+  public CompletableFuture<Void> applyClientAsync(DiscoverySession session, String[] regions,
+      RegionalClientConsumer<CLIENT> consumer) {
+    final List<String> roleArns = roleArnConfig.getRoleArns();
+    if (regions.length > 0) {
+      resolveAccountIds(session, regions[0]);
+    }
+    final List<CompletableFuture<Void>> tasks = new ArrayList<>();
+    for (String region : regions) {
+      tasks.add(CompletableFuture.runAsync(() -> applyLocalClient(session, region,
+          (client, provider) -> consumer.accept(region, client, provider)), clientExecutor));
+      if (isEmpty(roleArns)) {
+        continue;
+      }
+      LOGGER.debug("Scheduling client in Region {} for Role ARNs: {}", region, roleArns);
+      for (String roleArn : roleArns) {
+        tasks.add(CompletableFuture.runAsync(() -> applyRoleClient(session, region, roleArn,
+            (client, provider) -> consumer.accept(region, client, provider)), clientExecutor));
+      }
+    }
+    return CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0]));
+  }
+
+  /**
+   * The credentials the pairs are run with: the local ones, then those of each role ARN. Work
+   * done once per account, such as building an index the regional runs share, is meant to use
+   * these on the calling thread before {@link #applyClientAsync} fans out, so that no task on the
+   * client pool has to wait for another.
+   */
+  public List<AwsCredentialsProvider> getCredentialsProviders() {
+    final List<AwsCredentialsProvider> result = new ArrayList<>();
+    result.add(localProvider);
+    final List<String> roleArns = roleArnConfig.getRoleArns();
+    if (!isEmpty(roleArns)) {
+      for (String roleArn : roleArns) {
+        result.add(credentialsCache.getProvider(roleArn));
       }
     }
+    return result;
   }
 
   /**
-   * Returns a fresh {@link SdkClient} that <b>YOU MUST CLOSE</b>.
+   * Looks up the account of every set of credentials before the fan-out, so that the regional
+   * runs find it in the session. A failure is left to the runs of that account to report.
+   */
+  private void resolveAccountIds(DiscoverySession session, String region) {
+    for (AwsCredentialsProvider provider : getCredentialsProviders()) {
+      if (session.getProgress().isCancelled()) {
+        return;
+      }
+      try {
+        session.getAccountId(provider, region);
+      } catch (RuntimeException e) {
+        LOGGER.debug("Unable to resolve an account ahead of {}", getClass().getSimpleName(), e);
+      }
+    }
+  }
+
+  private void applyLocalClient(DiscoverySession session, String region,
+      BiConsumer<CLIENT, AwsCredentialsProvider> consumer) {
+    final DiscoveryProgress progress = session.getProgress();
+    if (progress.isCancelled()) {
+      return;
+    }
+    try {
+      consumer.accept(getClient(region, localProvider), localProvider);
+      progress.regionAccountDone();
+    } catch (CancellationException e) {
+      LOGGER.info("Stopped \"local\" discovery in Region {}: {}", region, e.getMessage());
+    } catch (Exception e) {
+      LOGGER.error("Unable to run \"local\" discovery in Region {}", region, e);
+      progress.error(format("Unable to run \"local\" %s in Region %s: %s",
+          getClass().getSimpleName(), region, e.getMessage()));
+      Sentry.capture(e);
+    }
+  }
+
+  private void applyRoleClient(DiscoverySession session, String region, String roleArn,
+      BiConsumer<CLIENT, AwsCredentialsProvider> consumer) {
+    final DiscoveryProgress progress = session.getProgress();
+    if (progress.isCancelled()) {
+      return;
+    }
+    try {
+      final AwsCredentialsProvider provider = credentialsCache.getProvider(roleArn);
+      // We need the pass along the credential provider for one off client creation
+      // in the same role_arn during cross account discovery
+
+      consumer.accept(getClient(region, provider), provider);
+      progress.regionAccountDone();
+    } catch (CancellationException e) {
+      LOGGER.info("Stopped discovery in Region {} for Role ARN \"{}\": {}", region, roleArn,
+          e.getMessage());
+    } catch (Exception e) {
+      LOGGER.error("Unable to apply client in Region {} to Role ARN \"{}\"", region, roleArn, e);
+      progress.error(format("Unable to run %s in Region %s for Role ARN \"%s\": %s",
+          getClass().getSimpleName(), region, roleArn, e.getMessage()));
+      Sentry.capture(e);
+    }
+  }
+
+  /**
+   * Returns the pooled client for {@code region} and {@code credentialsProvider}, creating it on
+   * first use. The client is shared across sessions, so <b>DO NOT CLOSE</b> it.
+   */
+  public CLIENT getClient(String region, AwsCredentialsProvider credentialsProvider) {
+    return clientRegistry.getClient(getClass().getName(), region, credentialsProvider,
+        () -> createClient(region, credentialsProvider));
+  }
+
+  /**
+   * The HTTP client {@link #createClient(String, AwsCredentialsProvider)} must build with.
+   */
+  protected SdkHttpClient getHttpClient() {
+    return clientRegistry.getHttpClient();
+  }
+
+  /**
+   * The rate limiting and retry configuration {@link #createClient(String,
+   * AwsCredentialsProvider)} must build with, shared by every client of this service, region and
+   * credentials.
+   */
+  protected ClientOverrideConfiguration getOverrideConfiguration(String region,
+      AwsCredentialsProvider credentialsProvider) {
+    return rateGovernor.getOverrideConfiguration(getClass().getName(), region,
+        credentialsProvider);
+  }
+
+  /**
+   * Sets the HTTP client, override configuration, credentials and region {@link
+   * #createClient(String, AwsCredentialsProvider)} must build with.
+   */
+  protected <B extends AwsClientBuilder<B, C> & SdkSyncClientBuilder<B, C>, C> B configure(
+      B builder, String region, AwsCredentialsProvider credentialsProvider) {
+    return builder
+        .httpClient(getHttpClient())
+        .overrideConfiguration(getOverrideConfiguration(region, credentialsProvider))
+        .credentialsProvider(credentialsProvider)
+        .region(Region.of(region));
+  }
+
+  /**
+   * Returns a fresh {@link SdkClient} built with {@link #configure}; only {@link
+   * #getClient(String, AwsCredentialsProvider)} should call this.
    */
   protected abstract CLIENT createClient(String region, AwsCredentialsProvider credentialsProvider);
+
+  @FunctionalInterface
+  public interface RegionalClientConsumer<CLIENT> {
+
+    void accept(String region, CLIENT client, AwsCredentialsProvider credentialsProvider);
+  }
 }
@@ -10,7 +10,6 @@ package io.openraven.data.shared;
 import io.openraven.producer.properties.RoleArnConfig;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
-import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
 
 @Component
@@ -22,7 +21,8 @@ public class CloudwatchClientFunctionRunner extends ClientFunctionRunner<CloudWa
 
 	@Override
 	protected CloudWatchClient createClient(String region, AwsCredentialsProvider credentialsProvider) {
-		return CloudWatchClient.builder().credentialsProvider(credentialsProvider).region(Region.of(region)).build();
+		return configure(CloudWatchClient.builder(), region, credentialsProvider)
+				.build();
 	}
 
 }
@@ -0,0 +1,165 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.data.shared;
+
+import io.sentry.Sentry;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
+import software.amazon.awssdk.services.cloudwatch.model.Dimension;
+import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataRequest;
+import software.amazon.awssdk.services.cloudwatch.model.Metric;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDataQuery;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDataResult;
+import software.amazon.awssdk.services.cloudwatch.model.MetricStat;
+import software.amazon.awssdk.services.cloudwatch.model.ScanBy;
+import software.amazon.awssdk.services.cloudwatch.model.Statistic;
+
+/**
+ * Gathers the metric lookups of one (region, account) run and resolves them together with
+ * {@code GetMetricData}, {@value #MAX_QUERIES} queries per call, instead of one {@code
+ * GetMetricStatistics} call per metric and resource.
+ *
+ * <p>Values still held by the {@link CloudwatchMetricCache} are not queried again, and every
+ * fetched value is cached for later sessions.
+ *
+ * <p>A batch is filled and fetched by a single discovery run, and is not thread safe. Fetching
+ * empties it, so a run can fetch once per page of resources rather than hold them all.
+ */
+public class CloudwatchMetricBatch {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CloudwatchMetricBatch.class);
+
+  /**
+   * The most queries {@code GetMetricData} accepts in one request.
+   */
+  static final int MAX_QUERIES = 500;
+
+  private final CloudWatchClient client;
+
+  private final CloudwatchMetricCache cache;
+
+  private final String accountId;
+
+  private final String regionID;
+
+  private final List<MetricDataQuery> queries = new ArrayList<>();
+
+  private final Map<String, DoubleConsumer> consumers = new HashMap<>();
+
+  private final List<Runnable> cached = new ArrayList<>();
+
+  CloudwatchMetricBatch(CloudWatchClient client, CloudwatchMetricCache cache, String accountId,
+      String regionID) {
+    this.client = client;
+    this.cache = cache;
+    this.accountId = accountId;
+    this.regionID = regionID;
+  }
+
+  /**
+   * Queues a lookup of the hourly MINIMUM of {@code metric} between three days and two hours ago.
+   * {@code consumer} is called from {@link #fetch()} with the most recent of those values, or with
+   * 0 when there are none.
+   */
+  public void requestMinimum(String namespace, String metric, List<Dimension> dimensions,
+      DoubleConsumer consumer) {
+    final Double value = cache.get(accountId, regionID, namespace, metric, dimensions);
+    if (value != null) {
+      cached.add(() -> consumer.accept(value));
+      return;
+    }
+
+    // ids must start with a lower case letter
+    final String id = "m" + queries.size();
+    queries.add(MetricDataQuery.builder()
+        .id(id)
+        .metricStat(MetricStat.builder()
+            .metric(Metric.builder().namespace(namespace).metricName(metric)
+                .dimensions(List.copyOf(dimensions)).build())
+            .period(3600)
+            .stat(Statistic.MINIMUM.toString())
+            .build())
+        .returnData(true)
+        .build());
+    consumers.put(id, consumer);
+  }
+
+  /**
+   * Resolves every queued lookup, hands each value to its consumer and empties the batch. A chunk
+   * of queries which can't be fetched is logged and captured, and its consumers are not called.
+   */
+  public void fetch() {
+    try {
+      doFetch();
+    } finally {
+      queries.clear();
+      consumers.clear();
+      cached.clear();
+    }
+  }
+
+  private void doFetch() {
+    cached.forEach(Runnable::run);
+    if (queries.isEmpty()) {
+      return;
+    }
+    final Instant startTS = Instant.now().minus(3, ChronoUnit.DAYS)
+        .truncatedTo(ChronoUnit.MINUTES);
+    final Instant endTS = Instant.now().minus(2, ChronoUnit.HOURS)
+        .truncatedTo(ChronoUnit.MINUTES);
+    LOG.info("Fetching {} metrics in region {}, {} more were cached", queries.size(), regionID,
+        cached.size());
+
+    for (int from = 0; from < queries.size(); from += MAX_QUERIES) {
+      final List<MetricDataQuery> chunk = queries
+          .subList(from, Math.min(from + MAX_QUERIES, queries.size()));
+      final Map<String, Double> values = new HashMap<>();
+      try {
+        client.getMetricDataPaginator(GetMetricDataRequest.builder()
+            .startTime(startTS)
+            .endTime(endTS)
+            .scanBy(ScanBy.TIMESTAMP_DESCENDING)
+            .metricDataQueries(chunk)
+            .build())
+            .metricDataResults()
+            .forEach(result -> collect(values, result));
+      } catch (SdkException e) {
+        LOG.error("Unable to fetch {} metrics in region {}", chunk.size(), regionID, e);
+        Sentry.capture(e);
+        continue;
+      }
+      chunk.forEach(query -> {
+        final Double value = values.get(query.id());
+        if (value != null) {
+          final Metric metric = query.metricStat().metric();
+          cache.put(accountId, regionID, metric.namespace(), metric.metricName(),
+              metric.dimensions(), value);
+        }
+        consumers.get(query.id()).accept(value != null ? value : 0D);
+      });
+    }
+  }
+
+  private static void collect(Map<String, Double> values, MetricDataResult result) {
+    // values come newest first, and a query's values may carry over to the next page, so the
+    // first value seen for an id is its most recent one
+    if (!result.values().isEmpty()) {
+      values.putIfAbsent(result.id(), result.values().get(0));
+    }
+  }
+
+}
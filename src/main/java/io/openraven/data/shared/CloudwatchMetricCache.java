@@ -0,0 +1,73 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.data.shared;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import io.openraven.producer.properties.DiscoveryProperties;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.javatuples.Quintet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.cloudwatch.model.Dimension;
+
+/**
+ * Metric values fetched by {@link CloudwatchMetricBatch}, kept across discovery sessions for
+ * {@code metric-cache.ttl-minutes}. The sizes we collect are hourly or daily aggregates, so
+ * fetching them again every session mostly returns the same values.
+ */
+@Component
+public class CloudwatchMetricCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CloudwatchMetricCache.class);
+
+  private final Cache<Quintet<String, String, String, String, List<Dimension>>, Double> values;
+
+  public CloudwatchMetricCache(DiscoveryProperties discoveryProperties) {
+    final DiscoveryProperties.MetricCache metricCache = discoveryProperties.getMetricCache();
+    final CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().recordStats();
+    if (metricCache.getTtlMinutes() > 0) {
+      builder.expireAfterWrite(metricCache.getTtlMinutes(), TimeUnit.MINUTES)
+          .maximumSize(metricCache.getMaxSize());
+    } else {
+      // nothing is kept, but hits and misses are still counted
+      builder.maximumSize(0);
+    }
+    this.values = builder.build();
+  }
+
+  @Nullable
+  public Double get(String accountId, String regionID, String namespace, String metric,
+      List<Dimension> dimensions) {
+    return values.getIfPresent(Quintet.with(accountId, regionID, namespace, metric, dimensions));
+  }
+
+  public void put(String accountId, String regionID, String namespace, String metric,
+      List<Dimension> dimensions, double value) {
+    values.put(Quintet.with(accountId, regionID, namespace, metric, dimensions), value);
+  }
+
+  public CacheStats getStats() {
+    return values.stats();
+  }
+
+  /**
+   * Logs the hit and miss counts since startup.
+   */
+  public void logStats() {
+    final CacheStats stats = values.stats();
+    LOG.info("Metric cache holds {} values, with {} hits and {} misses ({} hit rate), {} evicted",
+        values.size(), stats.hitCount(), stats.missCount(),
+        String.format("%.2f", stats.hitRate()), stats.evictionCount());
+  }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.data.shared;
+
+import io.openraven.producer.properties.ExecutionProperties;
+import io.sentry.Sentry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+/**
+ * Owns the bounded thread pools discovery work is scheduled on, so that they are sized from
+ * configuration and shut down with the application context.
+ */
+@Component
+public class DiscoveryExecutors implements DisposableBean {
+
+  private final ExecutorService serviceExecutor;
+
+  private final ExecutorService clientExecutor;
+
+  public DiscoveryExecutors(ExecutionProperties executionProperties) {
+    this.serviceExecutor = Executors.newFixedThreadPool(
+        Math.max(1, executionProperties.getServicePoolSize()), threadFactory("discovery-service"));
+    this.clientExecutor = Executors.newFixedThreadPool(
+        Math.max(1, executionProperties.getClientPoolSize()), threadFactory("discovery-client"));
+  }
+
+  /**
+   * The pool each {@link io.openraven.data.interfaces.IDiscovery} of a session runs on.
+   */
+  public ExecutorService getServiceExecutor() {
+    return serviceExecutor;
+  }
+
+  /**
+   * The pool shared by every {@link ClientFunctionRunner} to run its (region, credentials) pairs.
+   * Tasks on this pool must never wait on other tasks of the same pool.
+   */
+  public ExecutorService getClientExecutor() {
+    return clientExecutor;
+  }
+
+  @Override
+  public void destroy() {
+    serviceExecutor.shutdownNow();
+    clientExecutor.shutdownNow();
+  }
+
+  private static ThreadFactory threadFactory(String prefix) {
+    final AtomicInteger counter = new AtomicInteger();
+    return runnable -> {
+      Thread result = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+      result.setDaemon(true);
+      result.setUncaughtExceptionHandler((t, e) -> Sentry.capture(e));
+      return result;
+    };
+  }
+
+}
@@ -5,7 +5,7 @@
  * https://www.openraven.com/legal/apache-2-license
  * *********************************************************
  */
-package io.openraven.consumer.utils;
+package io.openraven.data.shared;
 
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
@@ -32,4 +32,11 @@ public class EncodedNamedUUIDGenerator {
     return Base64.getUrlEncoder().withoutPadding().encodeToString(uuidBytes.array());
   }
 
+  /**
+   * The ID a resource is indexed under, and the key of the Kafka records carrying it.
+   */
+  public static String getDocumentId(String arn) throws UnsupportedEncodingException {
+    return getEncodedNamedUUID(arn.toLowerCase());
+  }
+
 }
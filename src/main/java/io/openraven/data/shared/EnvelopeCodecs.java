@@ -0,0 +1,77 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.data.shared;
+
+import io.openraven.data.interfaces.EnvelopeCodec;
+import io.openraven.producer.properties.DiscoveryProperties;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.springframework.stereotype.Component;
+
+/**
+ * The {@link EnvelopeCodec}s known to both the producer and the consumer: the producer publishes
+ * with the one named by {@code cloud-ingestion.publishing.codec}, and the consumer picks the one
+ * named in each record's header.
+ */
+@Component
+public class EnvelopeCodecs {
+
+  private final Map<String, EnvelopeCodec> codecs = Stream
+      .of(JacksonEnvelopeCodec.typedJson(), JacksonEnvelopeCodec.json(),
+          JacksonEnvelopeCodec.smile(), JacksonEnvelopeCodec.cbor())
+      .collect(Collectors.toMap(EnvelopeCodec::getName, Function.identity()));
+
+  private final EnvelopeCodec publishingCodec;
+
+  public EnvelopeCodecs(DiscoveryProperties discoveryProperties) {
+    final String name = discoveryProperties.getPublishing().getCodec();
+    this.publishingCodec = codecs.get(name);
+    if (publishingCodec == null) {
+      throw new IllegalArgumentException(
+          "Unknown envelope codec \"" + name + "\", expected one of " + codecs.keySet());
+    }
+  }
+
+  /**
+   * The codec new envelopes are published with.
+   */
+  public EnvelopeCodec getPublishingCodec() {
+    return publishingCodec;
+  }
+
+  /**
+   * The header naming {@code codec}, to be added to every record it wrote.
+   */
+  public byte[] getHeaderValue(EnvelopeCodec codec) {
+    return codec.getName().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * The codec a record was written with, which is {@link JacksonEnvelopeCodec#typedJson()} for
+   * records published before the header existed.
+   *
+   * @throws IOException if the header names a codec this version doesn't know
+   */
+  public EnvelopeCodec forHeaders(Headers headers) throws IOException {
+    final Header header = headers.lastHeader(EnvelopeCodec.HEADER);
+    final String name = header == null ? JacksonEnvelopeCodec.TYPED_JSON
+        : new String(header.value(), StandardCharsets.UTF_8);
+    final EnvelopeCodec codec = codecs.get(name);
+    if (codec == null) {
+      throw new IOException("Unknown envelope codec \"" + name + "\"");
+    }
+    return codec;
+  }
+
+}
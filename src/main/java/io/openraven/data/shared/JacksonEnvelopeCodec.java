@@ -0,0 +1,129 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.data.shared;
+
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.openraven.data.interfaces.AWSResource;
+import io.openraven.data.interfaces.Envelope;
+import io.openraven.data.interfaces.EnvelopeCodec;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The {@link EnvelopeCodec}s built on Jackson. Apart from {@link #typedJson()}, they only record
+ * the class of the envelope's contents, in an {@value #CLASS_PROPERTY} property, rather than
+ * wrapping every non final value in its class name.
+ */
+public class JacksonEnvelopeCodec implements EnvelopeCodec {
+
+  public static final String TYPED_JSON = "typed-json";
+
+  public static final String JSON = "json";
+
+  public static final String SMILE = "smile";
+
+  public static final String CBOR = "cbor";
+
+  public static final String CLASS_PROPERTY = "@class";
+
+  private final String name;
+
+  private final ObjectWriter writer;
+
+  private final ObjectReader reader;
+
+  private final boolean json;
+
+  private JacksonEnvelopeCodec(String name, ObjectMapper mapper) {
+    this.name = name;
+    this.json = !mapper.getFactory().canHandleBinaryNatively();
+    mapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+    this.writer = mapper.writerFor(Envelope.class);
+    this.reader = mapper.readerFor(Envelope.class);
+  }
+
+  /**
+   * The format envelopes were published in before codecs were named, which is how records
+   * without a {@value EnvelopeCodec#HEADER} header are read.
+   */
+  public static JacksonEnvelopeCodec typedJson() {
+    final ObjectMapper mapper = new ObjectMapper()
+        .activateDefaultTyping(LaissezFaireSubTypeValidator.instance,
+            ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.WRAPPER_ARRAY)
+        .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+    return new JacksonEnvelopeCodec(TYPED_JSON, mapper);
+  }
+
+  public static JacksonEnvelopeCodec json() {
+    return compact(JSON, new JsonFactory());
+  }
+
+  public static JacksonEnvelopeCodec smile() {
+    return compact(SMILE, new SmileFactory());
+  }
+
+  public static JacksonEnvelopeCodec cbor() {
+    return compact(CBOR, new CBORFactory());
+  }
+
+  private static JacksonEnvelopeCodec compact(String name, JsonFactory factory) {
+    final ObjectMapper mapper = new ObjectMapper(factory)
+        .addMixIn(AWSResource.class, TypedResource.class)
+        .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false)
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    return new JacksonEnvelopeCodec(name, mapper);
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public boolean isJson() {
+    return json;
+  }
+
+  /**
+   * Encodes into the thread's {@link ReusableByteArrayOutputStream}, so the only allocation left
+   * is the returned array itself.
+   */
+  @Override
+  public byte[] encode(Envelope envelope) throws IOException {
+    final ReusableByteArrayOutputStream buffer = ReusableByteArrayOutputStream.forCurrentThread();
+    writer.writeValue(buffer, envelope);
+    return buffer.toByteArray();
+  }
+
+  @Override
+  public void encode(Envelope envelope, OutputStream out) throws IOException {
+    writer.writeValue(out, envelope);
+  }
+
+  @Override
+  public Envelope decode(byte[] data) throws IOException {
+    return reader.readValue(data);
+  }
+
+  @JsonTypeInfo(use = JsonTypeInfo.Id.CLASS, include = JsonTypeInfo.As.PROPERTY,
+      property = CLASS_PROPERTY)
+  private abstract static class TypedResource {
+
+  }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.data.shared;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.openraven.consumer.utils.JacksonMapper;
+import java.util.Iterator;
+import java.util.Map;
+import org.springframework.lang.Nullable;
+import software.amazon.awssdk.core.SdkPojo;
+import software.amazon.awssdk.utils.builder.ToCopyableBuilder;
+
+/**
+ * Collects the facets of a resource into one JSON payload. SDK models are held as they are, by
+ * {@link SdkPojoSerializer}, and only written out when the payload is serialized; other facets are
+ * converted to JSON once. Each facet is merged into the payload in place, by these rules:
+ * <ul>
+ *   <li>objects are merged field by field, recursively</li>
+ *   <li>arrays are appended to</li>
+ *   <li>any other value replaces the one before it</li>
+ * </ul>
+ * The nodes of a facet become part of the payload, so a facet must not be added to two payloads.
+ */
+public class PayloadBuilder {
+
+  private static final ObjectMapper objectMapper = JacksonMapper.getJacksonMapper();
+
+  private JsonNode payload;
+
+  public PayloadBuilder() {
+  }
+
+  /**
+   * @param payload what has been collected so far, which is merged into rather than copied
+   */
+  public PayloadBuilder(@Nullable JsonNode payload) {
+    this.payload = payload;
+  }
+
+  /**
+   * Merges the fields of an SDK response into the payload.
+   */
+  @SuppressWarnings("rawtypes")
+  public PayloadBuilder add(@Nullable ToCopyableBuilder response) {
+    if (response != null) {
+      payload = merge(payload, toJson(response));
+      if (payload instanceof SdkPojoSerializer.SdkPojoNode) {
+        // the payload is merged into in place, so its top level must be a real object
+        payload = SdkPojoSerializer.expand(payload);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Merges a facet into the payload under {@code name}.
+   *
+   * @param facet an SDK response or model, or anything else Jackson can convert
+   */
+  public PayloadBuilder add(String name, @Nullable Object facet) {
+    if (facet != null) {
+      final ObjectNode node = objectMapper.createObjectNode();
+      node.set(name, toJson(facet));
+      payload = merge(payload, node);
+    }
+    return this;
+  }
+
+  public PayloadBuilder add(@Nullable JsonNode node) {
+    if (node != null) {
+      payload = merge(payload, node);
+    }
+    return this;
+  }
+
+  /**
+   * @return the payload, or {@code null} if nothing was added to an empty builder
+   */
+  @Nullable
+  public JsonNode build() {
+    return payload;
+  }
+
+  @SuppressWarnings("rawtypes")
+  private static JsonNode toJson(Object facet) {
+    if (facet instanceof JsonNode) {
+      return (JsonNode) facet;
+    }
+    if (facet instanceof SdkPojo) {
+      return SdkPojoSerializer.toNode((SdkPojo) facet);
+    }
+    return objectMapper.convertValue(
+        facet instanceof ToCopyableBuilder ? ((ToCopyableBuilder) facet).toBuilder() : facet,
+        JsonNode.class);
+  }
+
+  private static JsonNode merge(@Nullable JsonNode target, JsonNode source) {
+    if (target == null) {
+      return source;
+    }
+    // SDK models are only expanded, a level at a time, where something is merged into them
+    target = SdkPojoSerializer.expand(target);
+    if (target.isObject() && (source = SdkPojoSerializer.expand(source)).isObject()) {
+      final ObjectNode targetObject = (ObjectNode) target;
+      final Iterator<Map.Entry<String, JsonNode>> fields = source.fields();
+      while (fields.hasNext()) {
+        final Map.Entry<String, JsonNode> field = fields.next();
+        final JsonNode existing = targetObject.get(field.getKey());
+        final JsonNode merged = merge(existing, field.getValue());
+        if (merged != existing) {
+          targetObject.set(field.getKey(), merged);
+        }
+      }
+      return target;
+    }
+    if (target.isArray() && source.isArray()) {
+      ((ArrayNode) target).addAll((ArrayNode) source);
+      return target;
+    }
+    return source;
+  }
+
+}
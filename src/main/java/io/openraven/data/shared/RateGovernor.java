@@ -0,0 +1,178 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.data.shared;
+
+import io.openraven.producer.properties.ExecutionProperties;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.javatuples.Triplet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.exception.AbortedException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.core.retry.RetryUtils;
+import software.amazon.awssdk.core.retry.backoff.BackoffStrategy;
+import software.amazon.awssdk.core.retry.backoff.EqualJitterBackoffStrategy;
+import software.amazon.awssdk.core.retry.backoff.FullJitterBackoffStrategy;
+import software.amazon.awssdk.http.SdkHttpResponse;
+
+/**
+ * Keeps the calls of every (service, region, credentials) under an {@link AdaptiveTokenBucket},
+ * so that concurrent discoveries hitting the same endpoint back off together instead of each
+ * retrying into the same quota. The credentials provider stands in for the account, as there is
+ * one provider per role ARN plus the local one.
+ */
+@Component
+public class RateGovernor {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RateGovernor.class);
+
+  private final ExecutionProperties.RateLimit rateLimit;
+
+  private final Map<Triplet<String, String, AwsCredentialsProvider>, AdaptiveTokenBucket> buckets =
+      new ConcurrentHashMap<>();
+
+  public RateGovernor(ExecutionProperties executionProperties) {
+    this.rateLimit = executionProperties.getRateLimit();
+  }
+
+  /**
+   * Returns the configuration a client for {@code service} in {@code region} using {@code
+   * credentialsProvider} must be built with: every attempt takes a token from the bucket of that
+   * triple, throttling errors slow the bucket down, and retries back off exponentially with
+   * jitter.
+   */
+  public ClientOverrideConfiguration getOverrideConfiguration(String service, String region,
+      AwsCredentialsProvider credentialsProvider) {
+    if (!rateLimit.getEnabled()) {
+      return ClientOverrideConfiguration.builder().build();
+    }
+
+    final AdaptiveTokenBucket bucket = buckets
+        .computeIfAbsent(Triplet.with(service, region, credentialsProvider),
+            key -> new AdaptiveTokenBucket(rateLimit));
+
+    return ClientOverrideConfiguration.builder()
+        .addExecutionInterceptor(new GovernedInterceptor(bucket, service, region))
+        .retryPolicy(RetryPolicy.defaultRetryPolicy().toBuilder()
+            .numRetries(rateLimit.getMaxRetries())
+            .backoffStrategy(backoffStrategy(false))
+            .throttlingBackoffStrategy(backoffStrategy(true))
+            .build())
+        .build();
+  }
+
+  private BackoffStrategy backoffStrategy(boolean throttling) {
+    final Duration baseDelay = Duration.ofMillis(rateLimit.getBaseDelayMillis());
+    final Duration maxBackoffTime = Duration.ofMillis(rateLimit.getMaxBackoffMillis());
+    if (throttling) {
+      // throttled calls always wait at least half their backoff, so they don't retry right away
+      return EqualJitterBackoffStrategy.builder().baseDelay(baseDelay)
+          .maxBackoffTime(maxBackoffTime).build();
+    }
+    return FullJitterBackoffStrategy.builder().baseDelay(baseDelay)
+        .maxBackoffTime(maxBackoffTime).build();
+  }
+
+  /**
+   * Takes a token before every attempt and reports the outcome of every attempt to the bucket.
+   * Throttles are recorded here rather than in the retry condition, which isn't asked about the
+   * last attempt once the retries are used up.
+   */
+  private static class GovernedInterceptor implements ExecutionInterceptor {
+
+    // whether the throttle of the last attempt was already recorded from its response
+    private static final ExecutionAttribute<Boolean> THROTTLE_RECORDED =
+        new ExecutionAttribute<>("RateGovernor.ThrottleRecorded");
+
+    private final AdaptiveTokenBucket bucket;
+
+    private final String service;
+
+    private final String region;
+
+    GovernedInterceptor(AdaptiveTokenBucket bucket, String service, String region) {
+      this.bucket = bucket;
+      this.service = service;
+      this.region = region;
+    }
+
+    /**
+     * Called before every attempt, retries included.
+     */
+    @Override
+    public void beforeTransmission(Context.BeforeTransmission context,
+        ExecutionAttributes executionAttributes) {
+      try {
+        bucket.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw AbortedException.builder().message("Interrupted waiting for a rate limit token")
+            .cause(e).build();
+      }
+    }
+
+    /**
+     * Called after every attempt, retries included, with its raw response. A throttle is told by
+     * its status, or, for JSON protocols, by the error type header; those a query protocol sends
+     * as a plain 400 are only told apart once the execution fails.
+     */
+    @Override
+    public void afterTransmission(Context.AfterTransmission context,
+        ExecutionAttributes executionAttributes) {
+      final SdkHttpResponse response = context.httpResponse();
+      final boolean throttled = response.statusCode() == 429 || response.statusCode() == 503
+          || response.firstMatchingHeader("x-amzn-ErrorType")
+          .map(errorType -> RetryUtils.isThrottlingException(AwsServiceException.builder()
+              .statusCode(response.statusCode())
+              // the header may carry the error type's namespace after a colon
+              .awsErrorDetails(AwsErrorDetails.builder()
+                  .errorCode(errorType.split(":", 2)[0])
+                  .build())
+              .build()))
+          .orElse(false);
+      executionAttributes.putAttribute(THROTTLE_RECORDED, throttled);
+      if (throttled) {
+        throttle();
+      }
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context,
+        ExecutionAttributes executionAttributes) {
+      bucket.onSuccess();
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context,
+        ExecutionAttributes executionAttributes) {
+      if (RetryUtils.isThrottlingException(context.exception())
+          && !Boolean.TRUE.equals(executionAttributes.getAttribute(THROTTLE_RECORDED))) {
+        throttle();
+      }
+    }
+
+    private void throttle() {
+      bucket.onThrottle();
+      LOG.debug("Throttled by {} in region {}, slowing down to {} calls per second", service,
+          region, String.format("%.2f", bucket.getRate()));
+    }
+
+  }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.data.shared;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * An unsynchronized byte array output stream which is kept per thread and reused, so that
+ * encoding an envelope grows one buffer to the size of the largest envelope seen rather than
+ * allocating and copying a chain of fresh ones every time. Only {@link #toByteArray()} allocates,
+ * once, at the exact size of what was written.
+ */
+public final class ReusableByteArrayOutputStream extends OutputStream {
+
+  private static final int INITIAL_CAPACITY = 8 * 1024;
+
+  // a buffer grown past this by an unusually large envelope is dropped rather than kept around
+  private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+  private static final ThreadLocal<ReusableByteArrayOutputStream> BUFFERS = ThreadLocal
+      .withInitial(ReusableByteArrayOutputStream::new);
+
+  private byte[] buffer = new byte[INITIAL_CAPACITY];
+
+  private int count;
+
+  private ReusableByteArrayOutputStream() {
+  }
+
+  /**
+   * The current thread's buffer, emptied. It must not be held on to past the next call on the
+   * same thread.
+   */
+  public static ReusableByteArrayOutputStream forCurrentThread() {
+    final ReusableByteArrayOutputStream result = BUFFERS.get();
+    if (result.buffer.length > MAX_RETAINED_CAPACITY) {
+      result.buffer = new byte[INITIAL_CAPACITY];
+    }
+    result.count = 0;
+    return result;
+  }
+
+  @Override
+  public void write(int b) {
+    ensureCapacity(count + 1);
+    buffer[count++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) {
+    ensureCapacity(count + length);
+    System.arraycopy(bytes, offset, buffer, count, length);
+    count += length;
+  }
+
+  public int size() {
+    return count;
+  }
+
+  /**
+   * A copy of what has been written, which stays valid once the buffer is reused.
+   */
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buffer, count);
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity < 0) {
+      throw new OutOfMemoryError("Envelope too large to buffer");
+    }
+    if (capacity > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length << 1));
+    }
+  }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.data.shared;
+
+import io.openraven.producer.properties.ExecutionProperties;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import org.javatuples.Triplet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.core.SdkClient;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+
+/**
+ * Hands out long lived SDK clients, one per (service, region, credentials provider), so that
+ * sessions reuse their connections instead of building and tearing down a client per region and
+ * role ARN. Every client is built on the one shared {@link SdkHttpClient}, and all of them are
+ * closed when the application context shuts down.
+ */
+@Component
+public class SdkClientRegistry implements DisposableBean {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SdkClientRegistry.class);
+
+  private final SdkHttpClient httpClient;
+
+  /**
+   * Keyed by the credentials provider instance, which callers keep for as long as the client is
+   * in use; providers don't override {@code equals}, so this is identity.
+   */
+  private final Map<Triplet<String, String, AwsCredentialsProvider>, SdkClient> clients =
+      new ConcurrentHashMap<>();
+
+  public SdkClientRegistry(ExecutionProperties executionProperties) {
+    final ExecutionProperties.Http http = executionProperties.getHttp();
+    this.httpClient = ApacheHttpClient.builder()
+        .maxConnections(http.getMaxConnections())
+        .connectionTimeout(Duration.ofMillis(http.getConnectionTimeoutMillis()))
+        .socketTimeout(Duration.ofMillis(http.getSocketTimeoutMillis()))
+        .connectionMaxIdleTime(Duration.ofMillis(http.getConnectionMaxIdleMillis()))
+        .build();
+  }
+
+  /**
+   * The HTTP client every registered SDK client must be built with. It is owned by this registry,
+   * so SDK clients built with it leave it open when they are closed.
+   */
+  public SdkHttpClient getHttpClient() {
+    return httpClient;
+  }
+
+  /**
+   * Returns the client for {@code service} in {@code region} using {@code credentialsProvider},
+   * building it with {@code factory} on first use. The returned client is shared, so callers must
+   * not close it.
+   */
+  @SuppressWarnings("unchecked")
+  public <CLIENT extends SdkClient> CLIENT getClient(String service, String region,
+      AwsCredentialsProvider credentialsProvider, Supplier<CLIENT> factory) {
+    return (CLIENT) clients
+        .computeIfAbsent(Triplet.with(service, region, credentialsProvider), key -> {
+          LOG.debug("Creating {} client for Region {}", service, region);
+          return factory.get();
+        });
+  }
+
+  @Override
+  public void destroy() {
+    clients.values().forEach(client -> {
+      try {
+        client.close();
+      } catch (RuntimeException e) {
+        LOG.warn("Unable to close {} client", client.serviceName(), e);
+      }
+    });
+    clients.clear();
+    httpClient.close();
+  }
+
+}
@@ -0,0 +1,295 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.data.shared;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.POJONode;
+import io.openraven.consumer.utils.JacksonMapper;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.SdkPojo;
+import software.amazon.awssdk.utils.builder.ToCopyableBuilder;
+
+/**
+ * Writes AWS SDK models straight to a {@link JsonGenerator}, producing the same JSON as
+ * converting their builders with Jackson but without copying them into builders or building a
+ * tree first.
+ *
+ * <p>The properties of each model class are worked out once: their names are the bean
+ * properties of the model's serializable builder, as Jackson sees them, so the documents keep
+ * their field names, and their values are read straight from the model, using the {@code
+ * AsString} form of enums.
+ */
+public final class SdkPojoSerializer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SdkPojoSerializer.class);
+
+  private static final ObjectMapper objectMapper = JacksonMapper.getJacksonMapper();
+
+  private static final JsonNodeFactory nodes = JsonNodeFactory.instance;
+
+  private static final MethodType ACCESSOR_TYPE = MethodType.methodType(Object.class, Object.class);
+
+  // the plan of classes which are left to Jackson
+  private static final Property[] JACKSON = new Property[0];
+
+  private static final ClassValue<Property[]> PLANS = new ClassValue<>() {
+    @Override
+    protected Property[] computeValue(Class<?> type) {
+      return plan(type);
+    }
+  };
+
+  private SdkPojoSerializer() {
+  }
+
+  /**
+   * Wraps an SDK model as a node which is only written out when the payload is serialized.
+   */
+  public static JsonNode toNode(SdkPojo pojo) {
+    return new SdkPojoNode(pojo);
+  }
+
+  /**
+   * The top level properties of an SDK model as an object node, whose nested models, lists and
+   * maps are still only written out when the payload is serialized.
+   */
+  public static ObjectNode toObjectNode(SdkPojo pojo) {
+    final Property[] plan = PLANS.get(pojo.getClass());
+    if (plan == JACKSON) {
+      return objectMapper.convertValue(((ToCopyableBuilder<?, ?>) pojo).toBuilder(),
+          ObjectNode.class);
+    }
+    final ObjectNode result = nodes.objectNode();
+    for (Property property : plan) {
+      result.set(property.name.getValue(), valueNode(property.get(pojo)));
+    }
+    return result;
+  }
+
+  /**
+   * Expands a node wrapping an SDK model or map into an object node, or one wrapping a list into
+   * an array node, one level deep; any other node is returned as is.
+   */
+  public static JsonNode expand(JsonNode node) {
+    if (!(node instanceof SdkPojoNode)) {
+      return node;
+    }
+    final Object value = ((SdkPojoNode) node).getPojo();
+    if (value instanceof SdkPojo) {
+      return toObjectNode((SdkPojo) value);
+    }
+    if (value instanceof List) {
+      final ArrayNode result = nodes.arrayNode();
+      ((List<?>) value).forEach(element -> result.add(valueNode(element)));
+      return result;
+    }
+    if (value instanceof Map) {
+      final ObjectNode result = nodes.objectNode();
+      ((Map<?, ?>) value).forEach((key, element) ->
+          result.set(String.valueOf(key), valueNode(element)));
+      return result;
+    }
+    return node;
+  }
+
+  /**
+   * Writes any value found in an SDK model.
+   */
+  public static void write(Object value, JsonGenerator gen) throws IOException {
+    if (value == null) {
+      gen.writeNull();
+    } else if (value instanceof String) {
+      gen.writeString((String) value);
+    } else if (value instanceof SdkPojo) {
+      writePojo((SdkPojo) value, gen);
+    } else if (value instanceof List) {
+      gen.writeStartArray();
+      for (Object element : (List<?>) value) {
+        write(element, gen);
+      }
+      gen.writeEndArray();
+    } else if (value instanceof Map) {
+      gen.writeStartObject();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        gen.writeFieldName(String.valueOf(entry.getKey()));
+        write(entry.getValue(), gen);
+      }
+      gen.writeEndObject();
+    } else if (value instanceof Boolean) {
+      gen.writeBoolean((Boolean) value);
+    } else if (value instanceof Integer || value instanceof Short) {
+      gen.writeNumber(((Number) value).intValue());
+    } else if (value instanceof Long) {
+      gen.writeNumber((Long) value);
+    } else if (value instanceof Double) {
+      gen.writeNumber((Double) value);
+    } else if (value instanceof Float) {
+      gen.writeNumber((Float) value);
+    } else if (value instanceof BigDecimal) {
+      gen.writeNumber((BigDecimal) value);
+    } else if (value instanceof Instant) {
+      // as the JavaTimeModule writes it with WRITE_DATES_AS_TIMESTAMPS disabled
+      gen.writeString(value.toString());
+    } else if (value instanceof SdkBytes) {
+      gen.writeBinary(((SdkBytes) value).asByteArray());
+    } else {
+      gen.writeString(value.toString());
+    }
+  }
+
+  private static void writePojo(SdkPojo pojo, JsonGenerator gen) throws IOException {
+    final Property[] plan = PLANS.get(pojo.getClass());
+    if (plan == JACKSON) {
+      objectMapper.writeValue(gen, ((ToCopyableBuilder<?, ?>) pojo).toBuilder());
+      return;
+    }
+    gen.writeStartObject();
+    for (Property property : plan) {
+      gen.writeFieldName(property.name);
+      write(property.get(pojo), gen);
+    }
+    gen.writeEndObject();
+  }
+
+  private static JsonNode valueNode(Object value) {
+    if (value == null) {
+      return nodes.nullNode();
+    } else if (value instanceof String) {
+      return nodes.textNode((String) value);
+    } else if (value instanceof SdkPojo || value instanceof List || value instanceof Map) {
+      return new SdkPojoNode(value);
+    } else if (value instanceof Boolean) {
+      return nodes.booleanNode((Boolean) value);
+    } else if (value instanceof Integer || value instanceof Short) {
+      return nodes.numberNode(((Number) value).intValue());
+    } else if (value instanceof Long) {
+      return nodes.numberNode((Long) value);
+    } else if (value instanceof Double) {
+      return nodes.numberNode((Double) value);
+    } else if (value instanceof Float) {
+      return nodes.numberNode((Float) value);
+    } else if (value instanceof BigDecimal) {
+      return nodes.numberNode((BigDecimal) value);
+    } else if (value instanceof SdkBytes) {
+      return nodes.binaryNode(((SdkBytes) value).asByteArray());
+    }
+    return nodes.textNode(value.toString());
+  }
+
+  /**
+   * @return the properties of {@code type}, or {@link #JACKSON} if they can't all be read from
+   * the model, in which case its builder is converted by Jackson as before
+   */
+  private static Property[] plan(Class<?> type) {
+    final Class<?> builderClass;
+    try {
+      builderClass = (Class<?>) type.getMethod("serializableBuilderClass").invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      LOG.debug("{} has no serializable builder, falling back to Jackson", type.getName());
+      return JACKSON;
+    }
+
+    final BeanDescription description = objectMapper.getSerializationConfig()
+        .introspect(objectMapper.constructType(builderClass));
+    final List<Property> plan = new ArrayList<>();
+    for (BeanPropertyDefinition definition : description.findProperties()) {
+      if (!definition.hasGetter()) {
+        continue;
+      }
+      final String name = definition.getName();
+      final Method accessor = accessor(type, name);
+      if (accessor == null) {
+        // the model doesn't expose it under the same name, so Jackson must do the whole class
+        LOG.debug("{} has no accessor for {}, falling back to Jackson", type.getName(), name);
+        return JACKSON;
+      }
+      try {
+        plan.add(new Property(name, MethodHandles.publicLookup().unreflect(accessor)
+            .asType(ACCESSOR_TYPE)));
+      } catch (IllegalAccessException e) {
+        LOG.debug("{} accessor {} is not accessible, falling back to Jackson", type.getName(),
+            accessor.getName());
+        return JACKSON;
+      }
+    }
+    return plan.toArray(new Property[0]);
+  }
+
+  private static Method accessor(Class<?> type, String name) {
+    for (String candidate : new String[]{name + "AsString", name + "AsStrings", name}) {
+      try {
+        return type.getMethod(candidate);
+      } catch (NoSuchMethodException e) {
+        // try the next form
+      }
+    }
+    return null;
+  }
+
+  private static final class Property {
+
+    private final SerializedString name;
+
+    private final MethodHandle accessor;
+
+    Property(String name, MethodHandle accessor) {
+      this.name = new SerializedString(name);
+      this.accessor = accessor;
+    }
+
+    Object get(Object pojo) {
+      try {
+        return accessor.invokeExact(pojo);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new IllegalStateException("Unable to read " + name.getValue(), e);
+      }
+    }
+
+  }
+
+  /**
+   * A value of an SDK model, written out by {@link #write} whenever the tree holding it is
+   * serialized, by whichever mapper.
+   */
+  static final class SdkPojoNode extends POJONode {
+
+    SdkPojoNode(Object value) {
+      super(value);
+    }
+
+    @Override
+    public void serialize(JsonGenerator gen, SerializerProvider provider) throws IOException {
+      write(_value, gen);
+    }
+
+  }
+
+}
@@ -7,20 +7,10 @@
  */
 package io.openraven.data.shared;
 
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
-import java.util.List;
-import org.javatuples.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
-import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
-import software.amazon.awssdk.services.cloudwatch.model.Datapoint;
-import software.amazon.awssdk.services.cloudwatch.model.Dimension;
-import software.amazon.awssdk.services.cloudwatch.model.GetMetricStatisticsRequest;
-import software.amazon.awssdk.services.cloudwatch.model.GetMetricStatisticsResponse;
-import software.amazon.awssdk.services.cloudwatch.model.Statistic;
 
 @Component
 @Scope("singleton")
@@ -28,56 +18,27 @@ public class Utils {
 
   private static CloudwatchClientFunctionRunner cloudwatchClientProvider;
 
+  private static CloudwatchMetricCache cloudwatchMetricCache;
+
   @Autowired
   public void setCloudwatchClientProvider(CloudwatchClientFunctionRunner cloudwatchClientProvider) {
     Utils.cloudwatchClientProvider = cloudwatchClientProvider;
   }
 
-  public static Pair<Long, GetMetricStatisticsResponse> getCloudwatchMetricMinimum(
-      String regionID, String namespace, String metric,
-      List<Dimension> dimensions, AwsCredentialsProvider credentialsProvider) {
-
-    final CloudWatchClient client = cloudwatchClientProvider
-        .createClient(regionID, credentialsProvider);
-
-    Instant startTS = Instant.now().minus(3, ChronoUnit.DAYS).truncatedTo(ChronoUnit.MINUTES);
-    Instant endTS = Instant.now().minus(2, ChronoUnit.HOURS).truncatedTo(ChronoUnit.MINUTES);
-
-    GetMetricStatisticsRequest request = GetMetricStatisticsRequest.builder().startTime(startTS)
-        .endTime(endTS)
-        .namespace(namespace).period(3600).metricName(metric).statistics(Statistic.MINIMUM)
-        .dimensions(dimensions).build();
-
-    GetMetricStatisticsResponse getMetricStatisticsResult = client.getMetricStatistics(request);
-
-    return Pair.with(getMetricStatisticsResult.datapoints().stream().map(Datapoint::minimum)
-        .map(Double::longValue)
-        // we should only get one metric, as we're asking for MINIMUM, so pick
-        // that value
-        .findFirst().orElse(0L), getMetricStatisticsResult);
+  @Autowired
+  public void setCloudwatchMetricCache(CloudwatchMetricCache cloudwatchMetricCache) {
+    Utils.cloudwatchMetricCache = cloudwatchMetricCache;
   }
 
-  public static Pair<Double, GetMetricStatisticsResponse> getCloudwatchDoubleMetricMinimum(
-      String regionID, String namespace, String metric,
-      List<Dimension> dimensions, AwsCredentialsProvider credentialsProvider) {
-
-    final CloudWatchClient client = cloudwatchClientProvider
-        .createClient(regionID, credentialsProvider);
-
-    Instant startTS = Instant.now().minus(3, ChronoUnit.DAYS).truncatedTo(ChronoUnit.MINUTES);
-    Instant endTS = Instant.now().minus(2, ChronoUnit.HOURS).truncatedTo(ChronoUnit.MINUTES);
-
-    GetMetricStatisticsRequest request = GetMetricStatisticsRequest.builder().startTime(startTS)
-        .endTime(endTS)
-        .namespace(namespace).period(3600).metricName(metric).statistics(Statistic.MINIMUM)
-        .dimensions(dimensions).build();
-
-    GetMetricStatisticsResponse getMetricStatisticsResult = client.getMetricStatistics(request);
-
-    return Pair.with(getMetricStatisticsResult.datapoints().stream().map(Datapoint::minimum)
-        // we should only get one metric, as we're asking for MINIMUM, so pick
-        // that value
-        .findFirst().orElse(0D), getMetricStatisticsResult);
+  /**
+   * Returns an empty batch of metric lookups for {@code accountId} in {@code regionID}, to be
+   * filled and fetched by a single discovery run.
+   */
+  public static CloudwatchMetricBatch newMetricBatch(String accountId, String regionID,
+      AwsCredentialsProvider credentialsProvider) {
+    return new CloudwatchMetricBatch(
+        cloudwatchClientProvider.getClient(regionID, credentialsProvider), cloudwatchMetricCache,
+        accountId, regionID);
   }
 
 }
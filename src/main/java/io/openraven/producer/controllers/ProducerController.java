@@ -8,34 +8,166 @@
 package io.openraven.producer.controllers;
 
 import io.openraven.data.interfaces.DiscoveryRegistry;
+import io.openraven.producer.services.DiscoveryJob;
+import io.openraven.producer.services.DiscoveryJobs;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.context.config.annotation.RefreshScope;
 import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RefreshScope
 @Profile("producer")
 public class ProducerController {
 
+	static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+	private static final Logger LOG = LoggerFactory.getLogger(ProducerController.class);
+
 	private final DiscoveryRegistry discoveryRegistry;
 
+	private final DiscoveryJobs discoveryJobs;
+
 	@Autowired
-	public ProducerController(DiscoveryRegistry discoveryRegistry) {
+	public ProducerController(DiscoveryRegistry discoveryRegistry, DiscoveryJobs discoveryJobs) {
 		this.discoveryRegistry = discoveryRegistry;
+		this.discoveryJobs = discoveryJobs;
 	}
 
-	@GetMapping(path = "/discover", produces = MediaType.APPLICATION_JSON_VALUE)
-	public String discover(@RequestParam(required = false) String id) {
-		if (id == null) {
-			return this.discoveryRegistry.discover();
+	/**
+	 * Runs a discovery session and streams every resource to the client as newline delimited
+	 * JSON as soon as it has been sent to Kafka, gzip compressed if the client accepts it.
+	 */
+	@GetMapping(path = "/discover", produces = APPLICATION_NDJSON_VALUE)
+	public ResponseEntity<StreamingResponseBody> discover(@RequestParam(required = false) String id,
+			@RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+		final boolean gzip = acceptsGzip(acceptEncoding);
+
+		final StreamingResponseBody body = out -> {
+			// sync flush, so each line still reaches the client as it is written
+			final OutputStream stream = gzip ? new GZIPOutputStream(out, true) : out;
+			this.discoveryRegistry.discover(id, new NdjsonOutput(stream));
+			if (gzip) {
+				((GZIPOutputStream) stream).finish();
+			}
+			stream.flush();
+		};
+
+		final ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+				.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		if (gzip) {
+			response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
 		}
-		else {
-			return this.discoveryRegistry.discover(id);
+		return response.body(body);
+	}
+
+	/**
+	 * Starts a discovery session in the background; its progress is at the returned location.
+	 */
+	@PostMapping(path = "/discover/jobs", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<DiscoveryJob> submitJob(@RequestParam(required = false) String id) {
+		final DiscoveryJob job = this.discoveryJobs.submit(id);
+		return ResponseEntity.accepted()
+				.location(URI.create("/discover/jobs/" + job.getSessionId()))
+				.body(job);
+	}
+
+	@GetMapping(path = "/discover/jobs/{sessionId}", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<DiscoveryJob> getJob(@PathVariable String sessionId) {
+		return ResponseEntity.of(this.discoveryJobs.get(sessionId));
+	}
+
+	/**
+	 * Cancels a discovery session; the discoveries under way stop at their next resource.
+	 */
+	@DeleteMapping(path = "/discover/jobs/{sessionId}", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<DiscoveryJob> cancelJob(@PathVariable String sessionId) {
+		return this.discoveryJobs.cancel(sessionId)
+				.map(job -> ResponseEntity.accepted().body(job))
+				.orElseGet(() -> ResponseEntity.notFound().build());
+	}
+
+	/**
+	 * Whether an {@code Accept-Encoding} header allows gzip: it must be listed by name, or
+	 * matched by {@code *} without being listed, with a non zero q-value.
+	 */
+	static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		Boolean gzip = null;
+		boolean wildcard = false;
+		for (String element : acceptEncoding.split(",")) {
+			final String[] parameters = element.split(";");
+			final String coding = parameters[0].trim().toLowerCase(Locale.ROOT);
+			double quality = 1;
+			for (int i = 1; i < parameters.length; i++) {
+				final String parameter = parameters[i].trim();
+				if (parameter.length() > 2 && parameter.regionMatches(true, 0, "q=", 0, 2)) {
+					try {
+						quality = Double.parseDouble(parameter.substring(2).trim());
+					} catch (NumberFormatException e) {
+						quality = 0;
+					}
+				}
+			}
+			if ("gzip".equals(coding)) {
+				gzip = quality > 0;
+			} else if ("*".equals(coding)) {
+				wildcard = quality > 0;
+			}
 		}
+		return gzip != null ? gzip : wildcard;
+	}
+
+	/**
+	 * Writes each JSON document as one line. Discoveries emit from several threads, so writes are
+	 * serialized; once the client has gone away the remaining lines are dropped, while the session
+	 * itself carries on sending to Kafka.
+	 */
+	private static class NdjsonOutput implements Consumer<byte[]> {
+
+		private final OutputStream stream;
+
+		private boolean closed;
+
+		NdjsonOutput(OutputStream stream) {
+			this.stream = stream;
+		}
+
+		@Override
+		public synchronized void accept(byte[] json) {
+			if (closed) {
+				return;
+			}
+			try {
+				stream.write(json);
+				stream.write('\n');
+				stream.flush();
+			} catch (IOException e) {
+				closed = true;
+				LOG.warn("Client stopped reading discovery output, with error {}", e.getMessage());
+			}
+		}
+
 	}
 
 }
@@ -18,6 +18,14 @@ public class DiscoveryProperties {
 
 	private String integration;
 
+	private S3 s3 = new S3();
+
+	private MetricCache metricCache = new MetricCache();
+
+	private Publishing publishing = new Publishing();
+
+	private ChangeDetection changeDetection = new ChangeDetection();
+
 	public String[] getAws() {
 		return aws;
 	}
@@ -37,4 +45,206 @@ public class DiscoveryProperties {
 		this.integration = integration;
 	}
 
+	public S3 getS3() {
+		return s3;
+	}
+
+	public void setS3(final S3 s3) {
+		this.s3 = s3;
+	}
+
+	public MetricCache getMetricCache() {
+		return metricCache;
+	}
+
+	public void setMetricCache(final MetricCache metricCache) {
+		this.metricCache = metricCache;
+	}
+
+	public Publishing getPublishing() {
+		return publishing;
+	}
+
+	public void setPublishing(final Publishing publishing) {
+		this.publishing = publishing;
+	}
+
+	public ChangeDetection getChangeDetection() {
+		return changeDetection;
+	}
+
+	public void setChangeDetection(final ChangeDetection changeDetection) {
+		this.changeDetection = changeDetection;
+	}
+
+	/**
+	 * Values related to how S3 buckets are discovered.
+	 */
+	public static class S3 {
+
+		private boolean async;
+
+		private int maxInFlight = 64;
+
+		public boolean getAsync() {
+			return async;
+		}
+
+		/**
+		 * When {@code true}, the per bucket facet calls are issued concurrently through the
+		 * async (Netty NIO) SDK clients instead of one after another.
+		 */
+		public void setAsync(final boolean async) {
+			this.async = async;
+		}
+
+		public int getMaxInFlight() {
+			return maxInFlight;
+		}
+
+		/**
+		 * The maximum number of async S3 requests outstanding at any time.
+		 */
+		public void setMaxInFlight(final int maxInFlight) {
+			this.maxInFlight = maxInFlight;
+		}
+
+	}
+
+	/**
+	 * Values related to how CloudWatch metrics are reused between discovery sessions.
+	 */
+	public static class MetricCache {
+
+		private long ttlMinutes = 360;
+
+		private long maxSize = 100_000;
+
+		public long getTtlMinutes() {
+			return ttlMinutes;
+		}
+
+		/**
+		 * How long a fetched metric value is reused before it is fetched again; {@code 0}
+		 * turns the cache off.
+		 */
+		public void setTtlMinutes(final long ttlMinutes) {
+			this.ttlMinutes = ttlMinutes;
+		}
+
+		public long getMaxSize() {
+			return maxSize;
+		}
+
+		/**
+		 * The number of metric values kept, past which the least recently used are evicted.
+		 */
+		public void setMaxSize(final long maxSize) {
+			this.maxSize = maxSize;
+		}
+
+	}
+
+	/**
+	 * Values related to how discovered resources are published into Kafka.
+	 */
+	public static class Publishing {
+
+		private boolean async = true;
+
+		private int maxInFlight = 1000;
+
+		private String codec = "typed-json";
+
+		public boolean getAsync() {
+			return async;
+		}
+
+		/**
+		 * When {@code false}, every send waits for the broker's acknowledgement before the
+		 * discovery moves on to the next resource.
+		 */
+		public void setAsync(final boolean async) {
+			this.async = async;
+		}
+
+		public int getMaxInFlight() {
+			return maxInFlight;
+		}
+
+		/**
+		 * The maximum number of sends awaiting an acknowledgement, past which discoveries wait
+		 * for the broker to catch up.
+		 */
+		public void setMaxInFlight(final int maxInFlight) {
+			this.maxInFlight = maxInFlight;
+		}
+
+		public String getCodec() {
+			return codec;
+		}
+
+		/**
+		 * The wire format of the published envelopes. The default, {@code typed-json}, is the
+		 * format consumers which don't read the codec header expect; {@code json}, {@code smile}
+		 * and {@code cbor} are opt-in, once every consumer reads the header.
+		 */
+		public void setCodec(final String codec) {
+			this.codec = codec;
+		}
+
+	}
+
+	/**
+	 * Values related to skipping the publication of resources which haven't changed.
+	 */
+	public static class ChangeDetection {
+
+		private boolean enabled = false;
+
+		private String stateFile;
+
+		private long fullRefreshHours = 24;
+
+		public boolean getEnabled() {
+			return enabled;
+		}
+
+		/**
+		 * When {@code true}, a resource is only published if its configuration, supplementary
+		 * configuration or tags changed since it was last published. A resource which is skipped
+		 * keeps the {@code updatedIso} of its last publication in Elasticsearch, so an unchanged
+		 * resource can look up to {@link #setFullRefreshHours(long) full-refresh-hours} stale.
+		 * Requires {@link #setStateFile(String) state-file}.
+		 */
+		public void setEnabled(final boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public String getStateFile() {
+			return stateFile;
+		}
+
+		/**
+		 * The absolute path of the file the content hash of every published resource is kept in
+		 * between restarts. There is no default; it must be set when change detection is enabled.
+		 */
+		public void setStateFile(final String stateFile) {
+			this.stateFile = stateFile;
+		}
+
+		public long getFullRefreshHours() {
+			return fullRefreshHours;
+		}
+
+		/**
+		 * How often a session publishes every resource regardless of changes; {@code 0} never
+		 * does.
+		 */
+		public void setFullRefreshHours(final long fullRefreshHours) {
+			this.fullRefreshHours = fullRefreshHours;
+		}
+
+	}
+
 }
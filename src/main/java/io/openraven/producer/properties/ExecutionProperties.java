@@ -0,0 +1,264 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.producer.properties;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.cloud.context.config.annotation.RefreshScope;
+
+@ConfigurationProperties(prefix = "openraven.app.v1.execution")
+@RefreshScope
+public class ExecutionProperties {
+
+  private int servicePoolSize = 4;
+
+  private int clientPoolSize = 16;
+
+  private int defaultServiceConcurrency = 1;
+
+  private Map<String, Integer> serviceConcurrency = new HashMap<>();
+
+  private Http http = new Http();
+
+  private RateLimit rateLimit = new RateLimit();
+
+  public int getServicePoolSize() {
+    return servicePoolSize;
+  }
+
+  /**
+   * The number of threads used to run the registered discoveries of a session side by side.
+   */
+  public void setServicePoolSize(final int servicePoolSize) {
+    this.servicePoolSize = servicePoolSize;
+  }
+
+  public int getClientPoolSize() {
+    return clientPoolSize;
+  }
+
+  /**
+   * The number of threads shared by all discoveries to run their (region, credentials) pairs.
+   */
+  public void setClientPoolSize(final int clientPoolSize) {
+    this.clientPoolSize = clientPoolSize;
+  }
+
+  public int getDefaultServiceConcurrency() {
+    return defaultServiceConcurrency;
+  }
+
+  /**
+   * How many runs of the same discovery may be in flight at once (e.g. an on-demand
+   * {@code /discover} overlapping a scheduled session), unless overridden in {@link
+   * #setServiceConcurrency(Map)}.
+   */
+  public void setDefaultServiceConcurrency(final int defaultServiceConcurrency) {
+    this.defaultServiceConcurrency = defaultServiceConcurrency;
+  }
+
+  public Map<String, Integer> getServiceConcurrency() {
+    return serviceConcurrency;
+  }
+
+  /**
+   * Per discovery overrides of {@link #setDefaultServiceConcurrency(int)}, keyed by the
+   * discovery's analytics name, e.g. {@code S3Discovery}.
+   */
+  public void setServiceConcurrency(final Map<String, Integer> serviceConcurrency) {
+    this.serviceConcurrency = serviceConcurrency;
+  }
+
+  public int getServiceConcurrency(String serviceName) {
+    return Math.max(1, serviceConcurrency.getOrDefault(serviceName, defaultServiceConcurrency));
+  }
+
+  public Http getHttp() {
+    return http;
+  }
+
+  public void setHttp(final Http http) {
+    this.http = http;
+  }
+
+  public RateLimit getRateLimit() {
+    return rateLimit;
+  }
+
+  public void setRateLimit(final RateLimit rateLimit) {
+    this.rateLimit = rateLimit;
+  }
+
+  /**
+   * Tuning of the HTTP client shared by every AWS SDK client.
+   */
+  public static class Http {
+
+    private int maxConnections = 200;
+
+    private long connectionTimeoutMillis = 2_000;
+
+    private long socketTimeoutMillis = 30_000;
+
+    private long connectionMaxIdleMillis = 60_000;
+
+    public int getMaxConnections() {
+      return maxConnections;
+    }
+
+    /**
+     * The size of the connection pool, shared by all services, regions and accounts.
+     */
+    public void setMaxConnections(final int maxConnections) {
+      this.maxConnections = maxConnections;
+    }
+
+    public long getConnectionTimeoutMillis() {
+      return connectionTimeoutMillis;
+    }
+
+    public void setConnectionTimeoutMillis(final long connectionTimeoutMillis) {
+      this.connectionTimeoutMillis = connectionTimeoutMillis;
+    }
+
+    public long getSocketTimeoutMillis() {
+      return socketTimeoutMillis;
+    }
+
+    public void setSocketTimeoutMillis(final long socketTimeoutMillis) {
+      this.socketTimeoutMillis = socketTimeoutMillis;
+    }
+
+    public long getConnectionMaxIdleMillis() {
+      return connectionMaxIdleMillis;
+    }
+
+    /**
+     * How long a pooled connection may sit idle before it is closed.
+     */
+    public void setConnectionMaxIdleMillis(final long connectionMaxIdleMillis) {
+      this.connectionMaxIdleMillis = connectionMaxIdleMillis;
+    }
+
+  }
+
+  /**
+   * Client side rate limiting of AWS API calls, by a token bucket per (service, region,
+   * credentials) whose rate is halved on throttling and grows back while calls succeed.
+   */
+  public static class RateLimit {
+
+    private boolean enabled = true;
+
+    private double initialRate = 10;
+
+    private double minRate = 1;
+
+    private double maxRate = 100;
+
+    private double additiveIncrease = 1;
+
+    private double multiplicativeDecrease = 0.5;
+
+    private int maxRetries = 5;
+
+    private long baseDelayMillis = 100;
+
+    private long maxBackoffMillis = 20_000;
+
+    public boolean getEnabled() {
+      return enabled;
+    }
+
+    /**
+     * When {@code false}, calls are neither rate limited nor given the jittered retry policy.
+     */
+    public void setEnabled(final boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public double getInitialRate() {
+      return initialRate;
+    }
+
+    /**
+     * The calls per second a bucket starts out with.
+     */
+    public void setInitialRate(final double initialRate) {
+      this.initialRate = initialRate;
+    }
+
+    public double getMinRate() {
+      return minRate;
+    }
+
+    public void setMinRate(final double minRate) {
+      this.minRate = minRate;
+    }
+
+    public double getMaxRate() {
+      return maxRate;
+    }
+
+    public void setMaxRate(final double maxRate) {
+      this.maxRate = maxRate;
+    }
+
+    public double getAdditiveIncrease() {
+      return additiveIncrease;
+    }
+
+    /**
+     * How many calls per second the rate grows by for every second of successful calls.
+     */
+    public void setAdditiveIncrease(final double additiveIncrease) {
+      this.additiveIncrease = additiveIncrease;
+    }
+
+    public double getMultiplicativeDecrease() {
+      return multiplicativeDecrease;
+    }
+
+    /**
+     * The factor the rate is multiplied by when a call is throttled.
+     */
+    public void setMultiplicativeDecrease(final double multiplicativeDecrease) {
+      this.multiplicativeDecrease = multiplicativeDecrease;
+    }
+
+    public int getMaxRetries() {
+      return maxRetries;
+    }
+
+    public void setMaxRetries(final int maxRetries) {
+      this.maxRetries = maxRetries;
+    }
+
+    public long getBaseDelayMillis() {
+      return baseDelayMillis;
+    }
+
+    /**
+     * The first retry waits up to this long, doubling with every further retry.
+     */
+    public void setBaseDelayMillis(final long baseDelayMillis) {
+      this.baseDelayMillis = baseDelayMillis;
+    }
+
+    public long getMaxBackoffMillis() {
+      return maxBackoffMillis;
+    }
+
+    public void setMaxBackoffMillis(final long maxBackoffMillis) {
+      this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+  }
+
+}
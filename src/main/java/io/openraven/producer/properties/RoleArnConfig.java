@@ -21,6 +21,10 @@ public class RoleArnConfig {
 
 	public List<String> roleArns = new ArrayList<>();
 
+	private String stsRegion;
+
+	private boolean prefetch = true;
+
 	public List<String> getRoleArns() {
 		return roleArns;
 	}
@@ -29,4 +33,28 @@ public class RoleArnConfig {
 		this.roleArns = roleArns;
 	}
 
+	public String getStsRegion() {
+		return stsRegion;
+	}
+
+	/**
+	 * The region whose STS endpoint roles are assumed through, e.g. the region the service runs
+	 * in. When unset, the SDK's default region resolution applies.
+	 */
+	public void setStsRegion(String stsRegion) {
+		this.stsRegion = stsRegion;
+	}
+
+	public boolean getPrefetch() {
+		return prefetch;
+	}
+
+	/**
+	 * If every role should be assumed up front at the start of a discovery session, rather than
+	 * by whichever discovery first needs it.
+	 */
+	public void setPrefetch(boolean prefetch) {
+		this.prefetch = prefetch;
+	}
+
 }
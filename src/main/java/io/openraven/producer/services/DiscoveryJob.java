@@ -0,0 +1,123 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.producer.services;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import io.openraven.data.interfaces.DiscoveryProgress;
+import io.openraven.data.interfaces.DiscoverySession;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A discovery session started through {@link DiscoveryJobs}, serialized as its status.
+ */
+public class DiscoveryJob {
+
+  public enum State {
+    RUNNING, SUCCEEDED, FAILED, CANCELLED
+  }
+
+  private final DiscoverySession session;
+
+  private final Instant startedAt = Instant.now();
+
+  private volatile Instant finishedAt;
+
+  private volatile State state = State.RUNNING;
+
+  private volatile String failure;
+
+  DiscoveryJob(DiscoverySession session) {
+    this.session = session;
+  }
+
+  void track(CompletableFuture<Void> future) {
+    future.whenComplete((result, e) -> {
+      finishedAt = Instant.now();
+      if (e != null) {
+        final Throwable cause = unwrap(e);
+        failure = cause.getMessage() == null ? cause.getClass().getName() : cause.getMessage();
+        state = State.FAILED;
+      } else if (getProgress().isCancelled()) {
+        state = State.CANCELLED;
+      } else {
+        state = State.SUCCEEDED;
+      }
+    });
+  }
+
+  /**
+   * The error a session failed with, rather than the future's wrapper around it.
+   */
+  private static Throwable unwrap(Throwable e) {
+    Throwable cause = e;
+    while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+        && cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+    return cause;
+  }
+
+  public String getSessionId() {
+    return session.getId();
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  public Instant getStartedAt() {
+    return startedAt;
+  }
+
+  public Instant getFinishedAt() {
+    return finishedAt;
+  }
+
+  public String getFailure() {
+    return failure;
+  }
+
+  public int getServicesTotal() {
+    return getProgress().getServicesTotal();
+  }
+
+  public int getServicesDone() {
+    return getProgress().getServicesDone();
+  }
+
+  public int getRegionAccountsDone() {
+    return getProgress().getRegionAccountsDone();
+  }
+
+  public long getResourcesEmitted() {
+    return getProgress().getResourcesEmitted();
+  }
+
+  public int getErrors() {
+    return getProgress().getErrors();
+  }
+
+  public List<String> getRecentErrors() {
+    return getProgress().getRecentErrors();
+  }
+
+  @JsonIgnore
+  public DiscoveryProgress getProgress() {
+    return session.getProgress();
+  }
+
+  @JsonIgnore
+  public boolean isFinished() {
+    return finishedAt != null;
+  }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.producer.services;
+
+import io.openraven.data.interfaces.DiscoveryRegistry;
+import io.openraven.data.interfaces.DiscoverySession;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Discovery sessions run in the background, so callers can start one, poll its progress and
+ * cancel it instead of holding a request open for the whole session. Finished jobs are kept for
+ * an hour to be polled, and dropped after that on the next submit or poll, or by the hourly
+ * sweep.
+ */
+@Component
+public class DiscoveryJobs {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DiscoveryJobs.class);
+
+  private static final Duration RETENTION = Duration.ofHours(1);
+
+  private final DiscoveryRegistry discoveryRegistry;
+
+  private final Map<String, DiscoveryJob> jobs = new ConcurrentHashMap<>();
+
+  public DiscoveryJobs(DiscoveryRegistry discoveryRegistry) {
+    this.discoveryRegistry = discoveryRegistry;
+  }
+
+  /**
+   * Starts a discovery session on the discovery executor and returns right away.
+   *
+   * @param resourceID is an optional (can be null) filter to only run discovery for that resource
+   *                   ID
+   */
+  public DiscoveryJob submit(@Nullable String resourceID) {
+    prune();
+
+    final DiscoverySession session = discoveryRegistry.newSession(json -> {
+    });
+    final DiscoveryJob job = new DiscoveryJob(session);
+    jobs.put(session.getId(), job);
+    CompletableFuture<Void> discovery;
+    try {
+      discovery = discoveryRegistry.discoverAsync(session, resourceID);
+    } catch (RuntimeException e) {
+      // the job is registered already, so it must end rather than be left running
+      LOG.error("Unable to start discovery session {}", session.getId(), e);
+      discovery = CompletableFuture.failedFuture(e);
+    }
+    job.track(discovery);
+    LOG.info("Submitted discovery session {}", session.getId());
+    return job;
+  }
+
+  public Optional<DiscoveryJob> get(String sessionId) {
+    prune();
+    return Optional.ofNullable(jobs.get(sessionId));
+  }
+
+  /**
+   * Asks a running job to stop; it is {@link DiscoveryJob.State#CANCELLED} once the discoveries
+   * already under way have wound down.
+   */
+  public Optional<DiscoveryJob> cancel(String sessionId) {
+    final Optional<DiscoveryJob> job = get(sessionId);
+    job.filter(found -> !found.isFinished()).ifPresent(found -> {
+      LOG.info("Cancelling discovery session {}", sessionId);
+      found.getProgress().cancel();
+    });
+    return job;
+  }
+
+  @Scheduled(fixedDelay = 60 * 60 * 1000)
+  void prune() {
+    final Instant cutoff = Instant.now().minus(RETENTION);
+    jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt().isBefore(cutoff));
+  }
+
+}
@@ -7,32 +7,48 @@
  */
 package io.openraven.producer.services;
 
-import com.fasterxml.jackson.annotation.JsonTypeInfo;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectWriter;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
+import static org.springframework.util.StringUtils.isEmpty;
+
 import com.google.common.collect.ImmutableMap;
 import com.segment.analytics.Analytics;
 import com.segment.analytics.messages.TrackMessage;
 import io.openraven.data.interfaces.Envelope;
+import io.openraven.data.interfaces.EnvelopeCodec;
+import io.openraven.data.shared.DiscoveryExecutors;
+import io.openraven.data.shared.EncodedNamedUUIDGenerator;
+import io.openraven.data.shared.EnvelopeCodecs;
+import io.openraven.data.shared.JacksonEnvelopeCodec;
 import io.openraven.producer.properties.AnalyticsProperties;
+import io.openraven.producer.properties.DiscoveryProperties;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.apache.kafka.clients.producer.ProducerRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.kafka.core.KafkaOperations;
+import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.support.SendResult;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 import org.springframework.util.concurrent.ListenableFuture;
 
 @Component
 public class DiscoveryServices {
 
-  private final KafkaOperations<Long, String> producer;
+  private final KafkaTemplate<String, byte[]> producer;
 
   private final Analytics segmentAnalytics;
 
@@ -40,51 +56,205 @@ public class DiscoveryServices {
 
   private final boolean synchronousSend;
 
-  private static final Logger LOG = LoggerFactory.getLogger(DiscoveryServices.class);
+  private final Semaphore inFlight;
 
-  private static final ObjectMapper mapper = new ObjectMapper();
+  private final EnvelopeCodec codec;
 
-  private static final ObjectWriter objectWriter;
+  private final byte[] codecHeader;
 
-  static {
-    mapper.activateDefaultTyping(LaissezFaireSubTypeValidator.instance,
-        ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.WRAPPER_ARRAY).configure(
-        SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false );
-    objectWriter = mapper.writerWithDefaultPrettyPrinter();
-  }
+  private final ResourceStateStore stateStore;
+
+  // where the state store is saved, rather than on the Kafka producer's thread
+  private final Executor stateExecutor;
+
+  private final Map<String, SessionSends> sessions = new ConcurrentHashMap<>();
+
+  private static final Logger LOG = LoggerFactory.getLogger(DiscoveryServices.class);
+
+  // the /discover streams are JSON whichever codec the envelopes are published with
+  private static final EnvelopeCodec jsonCodec = JacksonEnvelopeCodec.json();
 
   @Autowired
-  private DiscoveryServices(final KafkaOperations<Long, String> kafka,
-      final AnalyticsProperties serviceProps) {
-    this(kafka, serviceProps, true);
+  private DiscoveryServices(final KafkaTemplate<String, byte[]> kafka,
+      final AnalyticsProperties serviceProps, final DiscoveryProperties discoveryProps,
+      final EnvelopeCodecs envelopeCodecs, final ResourceStateStore stateStore,
+      final DiscoveryExecutors discoveryExecutors) {
+    this(kafka, serviceProps, !discoveryProps.getPublishing().getAsync(),
+        discoveryProps.getPublishing().getMaxInFlight(), envelopeCodecs, stateStore,
+        discoveryExecutors.getServiceExecutor());
   }
 
-  DiscoveryServices(KafkaOperations<Long, String> kafka, AnalyticsProperties serviceProps,
-      boolean synchronousSend) {
+  DiscoveryServices(KafkaTemplate<String, byte[]> kafka, AnalyticsProperties serviceProps,
+      boolean synchronousSend, int maxInFlight, EnvelopeCodecs envelopeCodecs,
+      ResourceStateStore stateStore, Executor stateExecutor) {
     this.producer = kafka;
     this.synchronousSend = synchronousSend;
+    this.inFlight = new Semaphore(Math.max(1, maxInFlight));
+    this.codec = envelopeCodecs.getPublishingCodec();
+    this.codecHeader = envelopeCodecs.getHeaderValue(codec);
+    this.stateStore = stateStore;
+    this.stateExecutor = stateExecutor;
     segmentAnalytics = Analytics.builder(serviceProps.getKey()).build();
     sendTelemetry = serviceProps.getEnabled();
   }
 
-  public String sendToKafka(Envelope envelope, String resourceID) {
-    String json = "uninitialized json for resource " + resourceID;
+  /**
+   * Starts tracking the sends of a discovery session, so that {@link #closeSession(String)} can
+   * wait for all of them to be acknowledged. With change detection on, the session only publishes
+   * resources which changed, unless a full refresh is due.
+   *
+   * @param onFailure called with the resource ID of every send of the session which failed, from
+   *                  the Kafka producer's thread
+   */
+  public void openSession(String discoverySession, Consumer<String> onFailure) {
+    final boolean fullRefresh = stateStore.isEnabled() && stateStore.isFullRefreshDue();
+    if (fullRefresh) {
+      LOG.info("Discovery session {} publishes every resource, as a full refresh is due",
+          discoverySession);
+    }
+    sessions.put(discoverySession,
+        new SessionSends(onFailure, fullRefresh ? Instant.now() : null));
+  }
+
+  /**
+   * The session end barrier: stops tracking the session and returns a future which completes once
+   * every send of the session has been acknowledged or has failed, and the resource state, with
+   * change detection on, has been saved.
+   */
+  public CompletableFuture<Void> closeSession(String discoverySession) {
+    final SessionSends sends = sessions.remove(discoverySession);
+    if (sends == null) {
+      return CompletableFuture.completedFuture(null);
+    }
+    sends.done();
+    // the last acknowledgement completes the barrier on the Kafka producer's thread, which must
+    // not be held up writing the state file
+    return sends.acknowledged.thenRunAsync(() -> {
+      if (stateStore.isEnabled()) {
+        LOG.info("Discovery session {} left {} unchanged resources unpublished", discoverySession,
+            sends.unchanged.get());
+        if (sends.fullRefreshStartedAt != null) {
+          stateStore.fullRefreshDone(sends.fullRefreshStartedAt, sends.publishedArns);
+        }
+        stateStore.save();
+      }
+    }, stateExecutor);
+  }
+
+  /**
+   * Serializes the envelope and hands it to the Kafka producer. Unless publishing is synchronous
+   * this doesn't wait for the broker: the outcome is reported to the envelope's session, and only
+   * once {@code max-in-flight} sends are unacknowledged does it wait for one of them. Resources
+   * the {@link ResourceStateStore} has already seen published as they are now are skipped.
+   *
+   * @return the envelope as UTF-8 JSON, whichever codec it was published with, and whether or
+   * not it was published; with a JSON codec these are the very bytes handed to Kafka
+   */
+  public byte[] sendToKafka(Envelope envelope, String resourceID) {
+    final byte[] json;
+    final SessionSends sends = envelope.getDiscoverySession() == null ? null
+        : sessions.get(envelope.getDiscoverySession());
+    final String arn = envelope.getContents() == null ? null : envelope.getContents().arn;
+    final byte[] value;
+    final String contentHash;
     try {
-      json = objectWriter.writeValueAsString(envelope);
+      contentHash = stateStore.isEnabled() && !isEmpty(arn)
+          ? stateStore.hash(envelope.getContents()) : null;
+      if (contentHash != null && (sends == null || sends.fullRefreshStartedAt == null)
+          && stateStore.isUnchanged(arn, contentHash)) {
+        LOG.debug("Resource {} is unchanged since it was last published", resourceID);
+        if (sends != null) {
+          sends.unchanged.incrementAndGet();
+        }
+        return jsonCodec.encode(envelope);
+      }
 
-      final ListenableFuture<SendResult<Long, String>> future = producer.sendDefault(json);
-      if (synchronousSend) {
-        final SendResult<Long, String> sent = future.get(10, TimeUnit.SECONDS);
+      value = codec.encode(envelope);
+      json = codec.isJson() ? value : jsonCodec.encode(envelope);
+    } catch (IOException e) {
+      LOG.error("Error processing resource {} with ex:", resourceID, e);
+      return ("uninitialized json for resource " + resourceID).getBytes(StandardCharsets.UTF_8);
+    }
+
+    try {
+      inFlight.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.error("Interrupted waiting to send resource {}", resourceID);
+      if (sends != null) {
+        sends.onFailure.accept(resourceID);
+      }
+      return json;
+    }
+    if (sends != null) {
+      sends.started();
+    }
+
+    final ListenableFuture<SendResult<String, byte[]>> future;
+    try {
+      final ProducerRecord<String, byte[]> record = new ProducerRecord<>(producer.getDefaultTopic(),
+          recordKey(envelope), value);
+      record.headers().add(EnvelopeCodec.HEADER, codecHeader);
+      future = producer.send(record);
+    } catch (RuntimeException e) {
+      LOG.error("Error sending resource {} with ex:", resourceID, e);
+      completed(sends, resourceID, false);
+      return json;
+    }
+    future.addCallback(
+        sent -> {
+          LOG.debug("sent record := {}", sent.getRecordMetadata());
+          if (contentHash != null) {
+            stateStore.published(arn, contentHash);
+            if (sends != null && sends.fullRefreshStartedAt != null) {
+              sends.publishedArns.add(arn);
+            }
+          }
+          completed(sends, resourceID, true);
+        },
+        e -> {
+          LOG.error("Error sending resource {} with ex:", resourceID, e);
+          completed(sends, resourceID, false);
+        });
+
+    if (synchronousSend) {
+      try {
+        final SendResult<String, byte[]> sent = future.get(10, TimeUnit.SECONDS);
         LOG.info("sent record := {}", sent.getRecordMetadata());
+      } catch (ExecutionException | TimeoutException e) {
+        // already reported by the callback, or will be once the send gives up
+        LOG.debug("Send of resource {} did not complete: {}", resourceID, e.getMessage());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
       }
-    } catch (JsonProcessingException | ExecutionException | TimeoutException | InterruptedException e) {
-      LOG.error("Error processing resource {} with ex:", resourceID, e);
     }
     return json;
   }
 
-  public void flushKafka() {
-    producer.flush();
+  /**
+   * Keys every record by the document ID its resource is indexed under, so all versions of a
+   * resource go to the same partition, in order, and a compacted topic keeps the latest one.
+   * Resources without an ARN are left unkeyed.
+   */
+  private static String recordKey(Envelope envelope) {
+    if (envelope.getContents() == null || isEmpty(envelope.getContents().arn)) {
+      return null;
+    }
+    try {
+      return EncodedNamedUUIDGenerator.getDocumentId(envelope.getContents().arn);
+    } catch (UnsupportedEncodingException e) {
+      return null;
+    }
+  }
+
+  private void completed(SessionSends sends, String resourceID, boolean acknowledged) {
+    inFlight.release();
+    if (sends != null) {
+      if (!acknowledged) {
+        sends.onFailure.accept(resourceID);
+      }
+      sends.done();
+    }
   }
 
   public void sendAnalyticsEvent(String event, ImmutableMap<String, String> map) {
@@ -94,4 +264,40 @@ public class DiscoveryServices {
     }
   }
 
-}
\ No newline at end of file
+  /**
+   * Counts the sends of one session still awaiting the broker, plus one for the session itself
+   * until it is closed.
+   */
+  private static class SessionSends {
+
+    private final AtomicInteger pending = new AtomicInteger(1);
+
+    private final CompletableFuture<Void> acknowledged = new CompletableFuture<>();
+
+    private final AtomicInteger unchanged = new AtomicInteger();
+
+    private final Consumer<String> onFailure;
+
+    private final Instant fullRefreshStartedAt;
+
+    // every resource acknowledged during a full refresh, the rest are forgotten once it's done
+    private final Set<String> publishedArns = ConcurrentHashMap.newKeySet();
+
+    SessionSends(Consumer<String> onFailure, @Nullable Instant fullRefreshStartedAt) {
+      this.onFailure = onFailure;
+      this.fullRefreshStartedAt = fullRefreshStartedAt;
+    }
+
+    void started() {
+      pending.incrementAndGet();
+    }
+
+    void done() {
+      if (pending.decrementAndGet() == 0) {
+        acknowledged.complete(null);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,235 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.producer.services;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import io.openraven.data.interfaces.AWSResource;
+import io.openraven.data.shared.SdkPojoSerializer;
+import io.openraven.producer.properties.DiscoveryProperties;
+import io.sentry.Sentry;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+/**
+ * The content hash of every resource last published, by ARN, kept in {@code
+ * change-detection.state-file} so that a restart doesn't republish everything. A hash is only
+ * recorded once Kafka has acknowledged the resource, so a failed send is retried next session.
+ * Off by default: a skipped resource keeps its older {@code updatedIso} in Elasticsearch until the
+ * next full refresh.
+ */
+@Component
+public class ResourceStateStore implements DisposableBean {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ResourceStateStore.class);
+
+  private static final String FULL_REFRESH_PREFIX = "# full refresh ";
+
+  private static final ObjectMapper mapper = new ObjectMapper()
+      .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+
+  private final boolean enabled;
+
+  private final Path stateFile;
+
+  private final Duration fullRefreshInterval;
+
+  private final Map<String, String> hashes = new ConcurrentHashMap<>();
+
+  private volatile Instant lastFullRefresh = Instant.EPOCH;
+
+  private volatile boolean dirty;
+
+  public ResourceStateStore(DiscoveryProperties discoveryProperties) {
+    final DiscoveryProperties.ChangeDetection changeDetection = discoveryProperties
+        .getChangeDetection();
+    this.enabled = changeDetection.getEnabled();
+    final String stateFile = changeDetection.getStateFile();
+    this.stateFile = stateFile == null || stateFile.isEmpty() ? null : Paths.get(stateFile);
+    if (enabled && (this.stateFile == null || !this.stateFile.isAbsolute())) {
+      throw new IllegalArgumentException(
+          "change-detection.state-file must be an absolute path, not " + stateFile);
+    }
+    this.fullRefreshInterval = Duration.ofHours(changeDetection.getFullRefreshHours());
+    if (enabled) {
+      load();
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Whether a session starting now must publish every resource, because the last full refresh
+   * is older than {@code change-detection.full-refresh-hours}.
+   */
+  public boolean isFullRefreshDue() {
+    return !fullRefreshInterval.isZero()
+        && lastFullRefresh.plus(fullRefreshInterval).isBefore(Instant.now());
+  }
+
+  /**
+   * Records that a full refresh which started at {@code startedAt} has been published, and forgets
+   * every resource it didn't publish, since those are no longer discovered. A resource which was
+   * only missed, e.g. because its send failed, costs no more than being published next session.
+   */
+  public void fullRefreshDone(Instant startedAt, Set<String> publishedArns) {
+    final int before = hashes.size();
+    hashes.keySet().retainAll(publishedArns);
+    LOG.info("Forgot the state of {} resources not seen since the last full refresh",
+        before - hashes.size());
+    lastFullRefresh = startedAt;
+    dirty = true;
+  }
+
+  /**
+   * Hashes the parts of a resource which make it worth publishing again: its configuration,
+   * supplementary configuration and tags. Object fields are hashed in name order, since the order
+   * they were merged in, e.g. by the async S3 facets, differs from session to session.
+   */
+  public String hash(AWSResource resource) throws IOException {
+    final Hasher hasher = Hashing.murmur3_128().newHasher();
+    try (OutputStream out = Funnels.asOutputStream(hasher)) {
+      for (JsonNode node : new JsonNode[]{resource.configuration,
+          resource.supplementaryConfiguration, resource.tags}) {
+        if (node != null) {
+          try (JsonGenerator gen = mapper.getFactory().createGenerator(out)) {
+            writeCanonical(node, gen);
+          }
+        }
+        // keeps a missing part from hashing like its neighbour
+        out.write(0);
+      }
+    }
+    return hasher.hash().toString();
+  }
+
+  private static void writeCanonical(JsonNode node, JsonGenerator gen) throws IOException {
+    // lazily serialized SDK models are expanded so that their fields are sorted too
+    node = SdkPojoSerializer.expand(node);
+    if (node.isObject()) {
+      final List<String> names = new ArrayList<>(node.size());
+      node.fieldNames().forEachRemaining(names::add);
+      Collections.sort(names);
+      gen.writeStartObject();
+      for (String name : names) {
+        gen.writeFieldName(name);
+        writeCanonical(node.get(name), gen);
+      }
+      gen.writeEndObject();
+    } else if (node.isArray()) {
+      gen.writeStartArray();
+      for (JsonNode element : node) {
+        writeCanonical(element, gen);
+      }
+      gen.writeEndArray();
+    } else {
+      mapper.writeTree(gen, node);
+    }
+  }
+
+  public boolean isUnchanged(String arn, String hash) {
+    return hash.equals(hashes.get(arn));
+  }
+
+  public void published(String arn, String hash) {
+    if (!hash.equals(hashes.put(arn, hash))) {
+      dirty = true;
+    }
+  }
+
+  /**
+   * Writes the hashes to the state file, if anything changed since they were last written.
+   */
+  public synchronized void save() {
+    if (!enabled || !dirty) {
+      return;
+    }
+    dirty = false;
+    try {
+      final Path parent = stateFile.getParent();
+      Files.createDirectories(parent);
+      final Path temp = Files.createTempFile(parent, stateFile.getFileName().toString(), ".tmp");
+      try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+        writer.write(FULL_REFRESH_PREFIX + lastFullRefresh);
+        writer.newLine();
+        for (Map.Entry<String, String> entry : hashes.entrySet()) {
+          writer.write(entry.getKey());
+          writer.write('\t');
+          writer.write(entry.getValue());
+          writer.newLine();
+        }
+      }
+      // so a crash half way through never leaves a truncated file behind
+      Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      LOG.info("Saved the state of {} resources to {}", hashes.size(), stateFile);
+    } catch (IOException e) {
+      dirty = true;
+      LOG.error("Unable to save the resource state to {}", stateFile, e);
+      Sentry.capture(e);
+    }
+  }
+
+  @Override
+  public void destroy() {
+    save();
+  }
+
+  private void load() {
+    if (!Files.exists(stateFile)) {
+      LOG.info("No resource state at {}, every resource will be published", stateFile);
+      return;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith(FULL_REFRESH_PREFIX)) {
+          lastFullRefresh = Instant.parse(line.substring(FULL_REFRESH_PREFIX.length()));
+          continue;
+        }
+        final int tab = line.indexOf('\t');
+        if (tab > 0) {
+          hashes.put(line.substring(0, tab), line.substring(tab + 1));
+        }
+      }
+      LOG.info("Loaded the state of {} resources from {}", hashes.size(), stateFile);
+    } catch (IOException | RuntimeException e) {
+      // starting over only costs a full refresh
+      hashes.clear();
+      lastFullRefresh = Instant.EPOCH;
+      LOG.error("Unable to load the resource state from {}", stateFile, e);
+      Sentry.capture(e);
+    }
+  }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.consumer.messaging;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+class BoundedRetryBatchErrorHandlerTest {
+
+  private static final String SOURCE_TOPIC = "DISCOVERED_AWS_ENTITIES";
+
+  private static final String DEAD_LETTER_TOPIC = "DEADLETTER_AWS_ENTITIES";
+
+  private static final TopicPartition PARTITION = new TopicPartition(SOURCE_TOPIC, 0);
+
+  @SuppressWarnings("unchecked")
+  private final KafkaTemplate<String, byte[]> deadLetterOperations = mock(KafkaTemplate.class);
+
+  @SuppressWarnings("unchecked")
+  private final Consumer<String, byte[]> consumer = mock(Consumer.class);
+
+  @Test
+  void deadLettersToTheDeadLetterTopic() {
+    sendsSucceed();
+    final BoundedRetryBatchErrorHandler handler = handler(1);
+
+    handler.handle(new IllegalStateException("failed"), batch(), consumer, null);
+
+    @SuppressWarnings("unchecked")
+    final ArgumentCaptor<ProducerRecord<String, byte[]>> sent = ArgumentCaptor
+        .forClass(ProducerRecord.class);
+    verify(deadLetterOperations, times(2)).send(sent.capture());
+    for (ProducerRecord<String, byte[]> record : sent.getAllValues()) {
+      assertEquals(DEAD_LETTER_TOPIC, record.topic());
+    }
+    assertEquals("a", sent.getAllValues().get(0).key());
+    assertArrayEquals("first".getBytes(StandardCharsets.UTF_8),
+        sent.getAllValues().get(0).value());
+    verify(consumer).commitSync(Map.of(PARTITION, new OffsetAndMetadata(12)));
+  }
+
+  @Test
+  void redeliversUntilTheAttemptsAreUsedUp() {
+    sendsSucceed();
+    final BoundedRetryBatchErrorHandler handler = handler(2);
+
+    assertThrows(KafkaException.class,
+        () -> handler.handle(new IllegalStateException("failed"), batch(), consumer, null));
+    verify(consumer).seek(PARTITION, 10);
+    verify(deadLetterOperations, never()).send(any(ProducerRecord.class));
+
+    handler.handle(new IllegalStateException("failed"), batch(), consumer, null);
+    verify(deadLetterOperations, times(2)).send(any(ProducerRecord.class));
+  }
+
+  @Test
+  void keepsRedeliveringWhileTheDeadLetterTopicFails() {
+    final SettableListenableFuture<SendResult<String, byte[]>> failed =
+        new SettableListenableFuture<>();
+    failed.setException(new IllegalStateException("broker down"));
+    when(deadLetterOperations.send(any(ProducerRecord.class))).thenReturn(failed);
+    final BoundedRetryBatchErrorHandler handler = handler(1);
+
+    assertThrows(KafkaException.class,
+        () -> handler.handle(new IllegalStateException("failed"), batch(), consumer, null));
+    verify(consumer).seek(PARTITION, 10);
+    verify(consumer, never()).commitSync(any(Map.class));
+  }
+
+  private BoundedRetryBatchErrorHandler handler(int maxAttempts) {
+    return new BoundedRetryBatchErrorHandler(deadLetterOperations, DEAD_LETTER_TOPIC, maxAttempts,
+        0, new SimpleMeterRegistry());
+  }
+
+  private void sendsSucceed() {
+    final SettableListenableFuture<SendResult<String, byte[]>> sent =
+        new SettableListenableFuture<>();
+    sent.set(null);
+    when(deadLetterOperations.send(any(ProducerRecord.class))).thenReturn(sent);
+  }
+
+  private static ConsumerRecords<String, byte[]> batch() {
+    return new ConsumerRecords<>(Map.of(PARTITION, List.of(
+        new ConsumerRecord<>(SOURCE_TOPIC, 0, 10, "a", "first".getBytes(StandardCharsets.UTF_8)),
+        new ConsumerRecord<>(SOURCE_TOPIC, 0, 11, "b",
+            "second".getBytes(StandardCharsets.UTF_8)))));
+  }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.consumer.messaging;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class PassthroughEnvelopeTest {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  @Test
+  void readsTheRoutingFields() throws IOException {
+    final PassthroughEnvelope envelope = parse("{\"contents\":{\"arn\":\"arn:aws:s3:::bucket\","
+        + "\"resourceType\":\"AWS::S3::Bucket\"},\"discoverySession\":\"session\"}");
+
+    assertEquals("arn:aws:s3:::bucket", envelope.getArn());
+    assertEquals("AWS::S3::Bucket", envelope.getResourceType());
+    assertEquals("session", envelope.getDiscoverySession());
+  }
+
+  @Test
+  void replacesTheTopLevelFieldsTheConsumerOwns() throws IOException {
+    final JsonNode document = toDocument("{\"discoverySession\":\"session\",\"contents\":{"
+        + "\"@class\":\"io.openraven.data.s3.S3Bucket\",\"documentId\":\"old\","
+        + "\"arn\":\"arn:aws:s3:::bucket\",\"updatedIso\":\"2020-01-01T00:00:00Z\","
+        + "\"configuration\":{\"@class\":\"kept\",\"documentId\":\"kept\"}}}");
+
+    assertEquals(List.of("documentId", "updatedIso", "arn", "configuration"),
+        fieldNames(document));
+    assertEquals("id", document.get("documentId").asText());
+    assertEquals("2020-06-01T00:00:00Z", document.get("updatedIso").asText());
+    assertEquals("kept", document.get("configuration").get("@class").asText());
+    assertEquals("kept", document.get("configuration").get("documentId").asText());
+  }
+
+  @Test
+  void copiesEscapedNamesAndValuesAsTheyArrived() throws IOException {
+    final JsonNode document = toDocument("{\"contents\":{\"arn\":\"arn:aws:s3:::a\\\"b\","
+        + "\"ta\\\"g\":\"caf\\u00e9 \\\\ \\n\",\"documen\\u0074Id\":\"escaped\"}}");
+
+    assertEquals(List.of("documentId", "updatedIso", "arn", "ta\"g"), fieldNames(document));
+    assertEquals("arn:aws:s3:::a\"b", document.get("arn").asText());
+    assertEquals("caf\u00e9 \\ \n", document.get("ta\"g").asText());
+    assertEquals("id", document.get("documentId").asText());
+  }
+
+  @Test
+  void toleratesWhitespaceAroundDroppedFields() throws IOException {
+    final JsonNode document = toDocument("{\n  \"contents\" : {\n    \"@class\" : \"x\" ,\n"
+        + "    \"arn\" : \"arn:aws:s3:::bucket\" ,\n    \"updatedIso\" : \"old\"\n  }\n}");
+
+    assertEquals(List.of("documentId", "updatedIso", "arn"), fieldNames(document));
+    assertEquals("arn:aws:s3:::bucket", document.get("arn").asText());
+  }
+
+  @Test
+  void escapesTheInjectedValues() throws IOException {
+    final byte[] document = parse("{\"contents\":{}}").toDocument("a\"b", "c\\d");
+    final JsonNode parsed = mapper.readTree(document);
+
+    assertEquals("a\"b", parsed.get("documentId").asText());
+    assertEquals("c\\d", parsed.get("updatedIso").asText());
+    assertFalse(parsed.has("arn"));
+  }
+
+  @Test
+  void rejectsAnEnvelopeWithoutContents() {
+    assertThrows(IOException.class, () -> parse("{\"discoverySession\":\"session\"}"));
+    assertThrows(IOException.class, () -> parse("{\"contents\":null}"));
+    assertThrows(IOException.class, () -> parse("[]"));
+  }
+
+  private JsonNode toDocument(String envelope) throws IOException {
+    return mapper.readTree(parse(envelope).toDocument("id", "2020-06-01T00:00:00Z"));
+  }
+
+  private static PassthroughEnvelope parse(String envelope) throws IOException {
+    return PassthroughEnvelope.parse(envelope.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static List<String> fieldNames(JsonNode node) {
+    final List<String> result = new ArrayList<>();
+    node.fieldNames().forEachRemaining(result::add);
+    return result;
+  }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.data.shared;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.openraven.producer.properties.ExecutionProperties;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveTokenBucketTest {
+
+  @Test
+  void initialRateStaysWithinBounds() {
+    assertEquals(2, new AdaptiveTokenBucket(rateLimit(0.5, 2, 8)).getRate());
+    assertEquals(8, new AdaptiveTokenBucket(rateLimit(20, 2, 8)).getRate());
+  }
+
+  @Test
+  void throttleHalvesTheRateDownToTheMinimum() {
+    final AdaptiveTokenBucket bucket = new AdaptiveTokenBucket(rateLimit(8, 2, 100));
+
+    bucket.onThrottle();
+    assertEquals(4, bucket.getRate());
+    bucket.onThrottle();
+    bucket.onThrottle();
+    assertEquals(2, bucket.getRate());
+  }
+
+  @Test
+  void successGrowsTheRateUpToTheMaximum() {
+    final AdaptiveTokenBucket bucket = new AdaptiveTokenBucket(rateLimit(4, 1, 5));
+
+    bucket.onSuccess();
+    assertEquals(4.25, bucket.getRate(), 1e-9);
+    for (int i = 0; i < 100; i++) {
+      bucket.onSuccess();
+    }
+    assertEquals(5, bucket.getRate());
+  }
+
+  @Test
+  void acquireWaitsForTokensAtTheRate() throws InterruptedException {
+    final AdaptiveTokenBucket bucket = new AdaptiveTokenBucket(rateLimit(10, 10, 10));
+
+    final long start = System.nanoTime();
+    // the first token is there already, the other three come 100 ms apart
+    for (int i = 0; i < 4; i++) {
+      bucket.acquire();
+    }
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 250);
+  }
+
+  private static ExecutionProperties.RateLimit rateLimit(double initialRate, double minRate,
+      double maxRate) {
+    final ExecutionProperties.RateLimit result = new ExecutionProperties.RateLimit();
+    result.setInitialRate(initialRate);
+    result.setMinRate(minRate);
+    result.setMaxRate(maxRate);
+    result.setAdditiveIncrease(1);
+    result.setMultiplicativeDecrease(0.5);
+    return result;
+  }
+
+}
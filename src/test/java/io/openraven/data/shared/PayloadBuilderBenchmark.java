@@ -0,0 +1,183 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.data.shared;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.openraven.consumer.utils.JacksonMapper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import software.amazon.awssdk.services.s3.model.BucketVersioningStatus;
+import software.amazon.awssdk.services.s3.model.Destination;
+import software.amazon.awssdk.services.s3.model.GetBucketAclResponse;
+import software.amazon.awssdk.services.s3.model.GetBucketTaggingResponse;
+import software.amazon.awssdk.services.s3.model.GetBucketVersioningResponse;
+import software.amazon.awssdk.services.s3.model.Grant;
+import software.amazon.awssdk.services.s3.model.Grantee;
+import software.amazon.awssdk.services.s3.model.LoggingEnabled;
+import software.amazon.awssdk.services.s3.model.ObjectLockConfiguration;
+import software.amazon.awssdk.services.s3.model.ObjectLockEnabled;
+import software.amazon.awssdk.services.s3.model.Owner;
+import software.amazon.awssdk.services.s3.model.Permission;
+import software.amazon.awssdk.services.s3.model.PublicAccessBlockConfiguration;
+import software.amazon.awssdk.services.s3.model.ReplicationConfiguration;
+import software.amazon.awssdk.services.s3.model.ReplicationRule;
+import software.amazon.awssdk.services.s3.model.ReplicationRuleStatus;
+import software.amazon.awssdk.services.s3.model.ServerSideEncryption;
+import software.amazon.awssdk.services.s3.model.ServerSideEncryptionByDefault;
+import software.amazon.awssdk.services.s3.model.ServerSideEncryptionConfiguration;
+import software.amazon.awssdk.services.s3.model.ServerSideEncryptionRule;
+import software.amazon.awssdk.services.s3.model.Tag;
+import software.amazon.awssdk.services.s3.model.Type;
+import software.amazon.awssdk.utils.builder.ToCopyableBuilder;
+
+/**
+ * Builds and serializes the supplementary configuration of an S3 bucket, a facet at a time as
+ * {@code S3Discovery} does, two ways: as {@code PayloadUtils.update} used to, converting each
+ * facet's builder to a tree and merging it with {@code readerForUpdating}, and with {@link
+ * PayloadBuilder}, which keeps SDK models as {@link SdkPojoSerializer} nodes until they are
+ * written. Serialization is included since that is where the lazy nodes do their work.
+ *
+ * <p>Run it from the test classpath with {@link #main(String[])}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadBuilderBenchmark {
+
+  private static final ObjectMapper objectMapper = JacksonMapper.getJacksonMapper();
+
+  private final Map<String, Object> facets = new LinkedHashMap<>();
+
+  private GetBucketTaggingResponse tagging;
+
+  @Setup
+  public void setUp() {
+    final Owner owner = Owner.builder().id("79a59df900b949e55d96a1e698fbaced").displayName("owner")
+        .build();
+    final List<Grant> grants = new ArrayList<>();
+    for (Permission permission : List.of(Permission.FULL_CONTROL, Permission.READ,
+        Permission.READ_ACP, Permission.WRITE)) {
+      grants.add(Grant.builder()
+          .grantee(Grantee.builder()
+              .id(owner.id())
+              .displayName(owner.displayName())
+              .type(Type.CANONICAL_USER)
+              .build())
+          .permission(permission)
+          .build());
+    }
+    facets.put("BucketAcl", GetBucketAclResponse.builder()
+        .owner(owner)
+        .grants(grants)
+        .build());
+    facets.put("ServerSideEncryptionConfiguration", ServerSideEncryptionConfiguration.builder()
+        .rules(ServerSideEncryptionRule.builder()
+            .applyServerSideEncryptionByDefault(ServerSideEncryptionByDefault.builder()
+                .sseAlgorithm(ServerSideEncryption.AES256)
+                .build())
+            .build())
+        .build());
+    facets.put("BucketLoggingConfiguration", LoggingEnabled.builder()
+        .targetBucket("access-logs")
+        .targetPrefix("bucket/")
+        .build());
+    facets.put("BucketVersioning", GetBucketVersioningResponse.builder()
+        .status(BucketVersioningStatus.ENABLED)
+        .build());
+    facets.put("PublicAccessBlockConfiguration", PublicAccessBlockConfiguration.builder()
+        .blockPublicAcls(true)
+        .ignorePublicAcls(true)
+        .blockPublicPolicy(true)
+        .restrictPublicBuckets(true)
+        .build());
+    facets.put("BucketObjectLockConfiguration", ObjectLockConfiguration.builder()
+        .objectLockEnabled(ObjectLockEnabled.ENABLED)
+        .build());
+    final List<ReplicationRule> rules = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      rules.add(ReplicationRule.builder()
+          .id("rule-" + i)
+          .priority(i)
+          .status(ReplicationRuleStatus.ENABLED)
+          .destination(Destination.builder()
+              .bucket("arn:aws:s3:::replica-" + i)
+              .build())
+          .build());
+    }
+    facets.put("BucketReplicationConfiguration", ReplicationConfiguration.builder()
+        .role("arn:aws:iam::123456789012:role/replication")
+        .rules(rules)
+        .build());
+
+    final List<Tag> tags = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      tags.add(Tag.builder().key("key-" + i).value("value-" + i).build());
+    }
+    tagging = GetBucketTaggingResponse.builder().tagSet(tags).build();
+  }
+
+  @Benchmark
+  public byte[] readerForUpdating() throws IOException {
+    JsonNode payload = null;
+    for (Map.Entry<String, Object> facet : facets.entrySet()) {
+      final ObjectNode node = objectMapper.createObjectNode();
+      node.set(facet.getKey(), convert((ToCopyableBuilder<?, ?>) facet.getValue()));
+      payload = merge(payload, node);
+    }
+    payload = merge(payload, convert(tagging));
+    return objectMapper.writeValueAsBytes(payload);
+  }
+
+  @Benchmark
+  public byte[] payloadBuilder() throws IOException {
+    JsonNode payload = null;
+    for (Map.Entry<String, Object> facet : facets.entrySet()) {
+      payload = PayloadUtils.update(payload, Map.of(facet.getKey(), facet.getValue()));
+    }
+    payload = PayloadUtils.update(payload, tagging);
+    return objectMapper.writeValueAsBytes(payload);
+  }
+
+  private static JsonNode convert(ToCopyableBuilder<?, ?> response) {
+    return objectMapper.convertValue(response.toBuilder(), JsonNode.class);
+  }
+
+  private static JsonNode merge(JsonNode payload, JsonNode node) throws IOException {
+    return payload == null ? node : objectMapper.readerForUpdating(payload).readValue(node);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(PayloadBuilderBenchmark.class.getSimpleName())
+        .build())
+        .run();
+  }
+
+}
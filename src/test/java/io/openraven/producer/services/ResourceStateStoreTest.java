@@ -0,0 +1,122 @@
+/*
+ * ***********************************************************
+ * Copyright, 2020, Open Raven Inc.
+ * APACHE LICENSE, VERSION 2.0
+ * https://www.openraven.com/legal/apache-2-license
+ * *********************************************************
+ */
+package io.openraven.producer.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.openraven.data.interfaces.AWSResource;
+import io.openraven.producer.properties.DiscoveryProperties;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ResourceStateStoreTest {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  private final ResourceStateStore store = new ResourceStateStore(new DiscoveryProperties());
+
+  @Test
+  void hashIgnoresFieldOrder() throws Exception {
+    final AWSResource first = resource(
+        "{\"name\":\"bucket\",\"policy\":{\"a\":1,\"b\":[{\"x\":true,\"y\":null}]}}",
+        "{\"env\":\"prod\",\"team\":\"data\"}");
+    final AWSResource second = resource(
+        "{\"policy\":{\"b\":[{\"y\":null,\"x\":true}],\"a\":1},\"name\":\"bucket\"}",
+        "{\"team\":\"data\",\"env\":\"prod\"}");
+
+    assertEquals(store.hash(first), store.hash(second));
+  }
+
+  @Test
+  void hashKeepsArrayOrder() throws Exception {
+    assertNotEquals(store.hash(resource("{\"ids\":[1,2]}", null)),
+        store.hash(resource("{\"ids\":[2,1]}", null)));
+  }
+
+  @Test
+  void hashTellsMissingPartsApart() throws Exception {
+    final AWSResource asConfiguration = resource("{\"env\":\"prod\"}", null);
+    final AWSResource asTags = resource(null, "{\"env\":\"prod\"}");
+
+    assertNotEquals(store.hash(asConfiguration), store.hash(asTags));
+  }
+
+  @Test
+  void hashChangesWithAValue() throws Exception {
+    assertNotEquals(store.hash(resource("{\"versioning\":\"Enabled\"}", null)),
+        store.hash(resource("{\"versioning\":\"Suspended\"}", null)));
+  }
+
+  @Test
+  void enabledRequiresAnAbsoluteStateFile() {
+    assertThrows(IllegalArgumentException.class,
+        () -> new ResourceStateStore(changeDetection(null)));
+    assertThrows(IllegalArgumentException.class,
+        () -> new ResourceStateStore(changeDetection("resource-state.tsv")));
+  }
+
+  @Test
+  void savedStateIsLoadedOnRestart(@TempDir Path dir) {
+    final String stateFile = dir.resolve("state/resource-state.tsv").toString();
+    final ResourceStateStore first = new ResourceStateStore(changeDetection(stateFile));
+    assertTrue(first.isFullRefreshDue());
+    first.published("arn:aws:s3:::bucket", "abc");
+    first.fullRefreshDone(Instant.now(), Set.of("arn:aws:s3:::bucket"));
+    first.save();
+
+    final ResourceStateStore second = new ResourceStateStore(changeDetection(stateFile));
+    assertTrue(second.isUnchanged("arn:aws:s3:::bucket", "abc"));
+    assertFalse(second.isUnchanged("arn:aws:s3:::bucket", "def"));
+    assertFalse(second.isFullRefreshDue());
+  }
+
+  @Test
+  void fullRefreshForgetsWhatItDidNotPublish(@TempDir Path dir) {
+    final String stateFile = dir.resolve("resource-state.tsv").toString();
+    final ResourceStateStore first = new ResourceStateStore(changeDetection(stateFile));
+    first.published("arn:aws:s3:::kept", "abc");
+    first.published("arn:aws:s3:::deleted", "def");
+    first.fullRefreshDone(Instant.now(), Set.of("arn:aws:s3:::kept"));
+    first.save();
+
+    assertTrue(first.isUnchanged("arn:aws:s3:::kept", "abc"));
+    assertFalse(first.isUnchanged("arn:aws:s3:::deleted", "def"));
+    final ResourceStateStore second = new ResourceStateStore(changeDetection(stateFile));
+    assertTrue(second.isUnchanged("arn:aws:s3:::kept", "abc"));
+    assertFalse(second.isUnchanged("arn:aws:s3:::deleted", "def"));
+  }
+
+  private static DiscoveryProperties changeDetection(String stateFile) {
+    final DiscoveryProperties result = new DiscoveryProperties();
+    result.getChangeDetection().setEnabled(true);
+    result.getChangeDetection().setStateFile(stateFile);
+    return result;
+  }
+
+  private AWSResource resource(String configuration, String tags) throws Exception {
+    final AWSResource result = new AWSResource() {
+    };
+    result.configuration = parse(configuration);
+    result.tags = parse(tags);
+    return result;
+  }
+
+  private JsonNode parse(String json) throws Exception {
+    return json == null ? null : mapper.readTree(json);
+  }
+
+}